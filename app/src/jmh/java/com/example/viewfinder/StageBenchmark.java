@@ -0,0 +1,298 @@
+package com.example.viewfinder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.profile.GCProfiler;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-stage and end-to-end timings of EdgeDetector on synthetic frames.
+ *
+ * Everything here runs on a plain JVM: the pipelines go through the Plane
+ * entry points and ToArgb, which is the pixel packing EdgeBitmaps.ToBitmap does
+ * before handing the array to the Bitmap. Build against jmh-core with
+ * jmh-generator-annprocess on the annotation processor path, then either run
+ * org.openjdk.jmh.Main as usual (add -prof gc for allocation rates) or run
+ * this class, which adds the gc profiler and prints ns/pixel and bytes/frame
+ * for every stage and size. Any JMH command line options are passed through,
+ * e.g. a regex to pick stages or -p size=640x480.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    int width, height;
+    Plane frame;            // packed ARGB gray, as the old camera decode produced
+    byte[] nv21;
+    Workspace ws;
+    EdgeDetector.Stages stages;
+    Plane gray, out, tmp, suppressed, gradX, gradY;
+    byte[] directions;
+    int[] steps;
+    TemporalDetector temporal;
+    BoxBlur box;
+    IntegralImage integral;
+    EdgeRuns runs;
+    EdgeOutputs toRuns;
+    DetectorOptions opts;
+    EdgeMask mask, previousMask, grown;
+    Kernel sobelX;
+    int[] argb;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] wh = size.split("x");
+        width = Integer.parseInt(wh[0]);
+        height = Integer.parseInt(wh[1]);
+
+        // smooth gradients plus noise, so thresholds and NMS see a realistic mix
+        Random rnd = new Random(42);
+        nv21 = new byte[width * height * 3 / 2];
+        frame = new Plane(width, height);
+        for (int r=0; r<height; r++) {
+            for (int c=0; c<width; c++) {
+                int y = ((r * 7 + c * 3) & 0xFF) / 2 + ((c / 40 + r / 30) % 2) * 80 + rnd.nextInt(32);
+                if (y > 255) y = 255;
+                nv21[r * width + c] = (byte) (y + 16 > 255 ? 255 : y + 16);
+                frame.data[r * width + c] = 0xFF000000 | y * 0x010101;
+            }
+        }
+
+        opts = new DetectorOptions();
+        ws = new Workspace(width, height);
+        stages = ws.stages();
+        stages.from(frame);
+        stages.opts = opts;
+        stages.gradientWeight = Gradient.SOBEL;
+
+        // leave every intermediate plane of a Canny run in ws for the stage benchmarks
+        EdgeDetector.CannyEdges(frame, ws);
+        stages.from(frame);
+        gray = ws.gray();
+        suppressed = new Plane(width, height);
+        System.arraycopy(ws.suppressed().data, 0, suppressed.data, 0, suppressed.data.length);
+        out = new Plane(width, height);
+        tmp = new Plane(width, height);
+        gradX = new Plane(width, height);
+        gradY = new Plane(width, height);
+        directions = new byte[width * height];
+        steps = EdgeDetector.neighbourSteps(width);
+        sobelX = Kernel.of(EdgeDetector.SobelKernel(SobelOp.X_3x3));
+        argb = new int[width * height];
+        box = new BoxBlur(5);
+        integral = new IntegralImage(width, height, false);
+        runs = new EdgeRuns();
+        toRuns = new EdgeOutputs().runs(runs);
+        Plane work = new Plane(width, height);
+        System.arraycopy(suppressed.data, 0, work.data, 0, work.data.length);
+        EdgeDetector.filterSmallValues(work, ws.stack(), null, toRuns);
+        mask = new EdgeMask().from(work, 1);
+        previousMask = new EdgeMask().from(ws.magnitude(), 64);     // something else to compare with
+        grown = new EdgeMask();
+        temporal = new TemporalDetector();
+        temporal.detect(CameraMode.CANNY, nv21, width, height, null, new Workspace(width, height),
+                opts);
+    }
+
+    /**
+     * For the stages that threshold in place: a copy of the suppressed plane,
+     * restored before every call so each one sees the same input. Only the
+     * benchmarks that take this state pay for the per-invocation setup.
+     */
+    @State(Scope.Thread)
+    public static class InPlace {
+        Plane work;
+
+        @Setup(Level.Trial)
+        public void setup(StageBenchmark b) {
+            work = new Plane(b.width, b.height);
+        }
+
+        @Setup(Level.Invocation)
+        public void resetSuppressed(StageBenchmark b) {
+            System.arraycopy(b.suppressed.data, 0, work.data, 0, work.data.length);
+        }
+    }
+
+    @Benchmark
+    public Plane decode() {
+        stages.runStage(null, EdgeDetector.Stages.GRAY);
+        return ws.gray();
+    }
+
+    @Benchmark
+    public Plane gaussianBlur() {
+        GaussianBlur.DEFAULT.apply(gray, out, tmp);
+        return out;
+    }
+
+    @Benchmark
+    public Plane boxBlur() {
+        box.apply(gray, out, tmp);
+        return out;
+    }
+
+    @Benchmark
+    public IntegralImage integralImage() {
+        return integral.compute(gray);
+    }
+
+    @Benchmark
+    public Plane applyKernelInt() {
+        Convolution.apply(gray, sobelX, out, tmp, true);
+        return out;
+    }
+
+    @Benchmark
+    public Plane applyKernelDouble() {
+        EdgeDetector.ApplyKernel(gray, EdgeDetector.GAUSSIAN, out, 0, height);
+        return out;
+    }
+
+    @Benchmark
+    public Plane magnitude() {
+        Gradient.apply(gray, Gradient.SOBEL, null, null, out, false);
+        return out;
+    }
+
+    // What Canny used to store: Gx, Gy and the magnitude as three int planes
+    @Benchmark
+    public Plane gradientAxesAndMagnitude() {
+        Gradient.apply(ws.blurred(), Gradient.SOBEL, gradX, gradY, out, false);
+        return out;
+    }
+
+    // What it stores now: the magnitude and one direction byte per pixel
+    @Benchmark
+    public byte[] gradientAndDirections() {
+        Gradient.apply(ws.blurred(), Gradient.SOBEL, null, null, out, directions, false, null, 0, height);
+        return directions;
+    }
+
+    @Benchmark
+    public Plane suppressNonMaximum() {
+        EdgeDetector.suppressNonMaximum(ws.magnitude(), ws.directions(), steps, out, 0, height);
+        return out;
+    }
+
+    @Benchmark
+    public Plane filterSmallValues(InPlace in) {
+        EdgeDetector.filterSmallValues(in.work, ws.stack());
+        return in.work;
+    }
+
+    // The same pass, also run-length encoding what it keeps
+    @Benchmark
+    public EdgeRuns filterSmallValuesToRuns(InPlace in) {
+        EdgeDetector.filterSmallValues(in.work, ws.stack(), null, toRuns);
+        return runs;
+    }
+
+    // An overlay from the runs; costs per run, so compare with toArgb at realistic edge counts
+    @Benchmark
+    public int[] paintRuns() {
+        runs.paint(argb, 0xFFFFFFFF);
+        return argb;
+    }
+
+    @Benchmark
+    public EdgeMask dilateMask() {
+        return mask.dilate(grown);
+    }
+
+    @Benchmark
+    public int maskDifferences() {
+        return mask.differences(previousMask);
+    }
+
+    @Benchmark
+    public Plane localThresholds(InPlace in) {
+        EdgeDetector.localHysteresis(in.work, integral, CannyThresholds.local(16, 0.5), ws.stack());
+        return in.work;
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        EdgeDetector.ToArgb(suppressed, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] sobelPipeline() {
+        EdgeDetector.Detect(CameraMode.SOBEL, frame, ws, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] prewittPipeline() {
+        EdgeDetector.Detect(CameraMode.PREWITT, frame, ws, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] cannyPipeline() {
+        EdgeDetector.Detect(CameraMode.CANNY, frame, ws, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] cannyFromNv21() {
+        EdgeDetector.Detect(CameraMode.CANNY, nv21, width, height, ws, opts, argb);
+        return argb;
+    }
+
+    // A still camera: every tile matches the cached frame, so only decode, compare and threshold run
+    @Benchmark
+    public Plane cannyTemporalStill() {
+        return temporal.detect(CameraMode.CANNY, nv21, width, height, null, ws, opts);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class);
+        if (new CommandLineOptions(args).getIncludes().isEmpty()) {
+            builder.include(StageBenchmark.class.getSimpleName());
+        }
+        Collection<RunResult> results = new Runner(builder.build()).run();
+
+        System.out.printf("%n%-26s %10s %12s %14s%n", "stage", "size", "ns/pixel", "bytes/frame");
+        for (RunResult run : results) {
+            BenchmarkParams params = run.getParams();
+            String[] wh = params.getParam("size").split("x");
+            double pixels = Double.parseDouble(wh[0]) * Double.parseDouble(wh[1]);
+            String name = params.getBenchmark();
+            name = name.substring(name.lastIndexOf('.') + 1);
+            Result<?> alloc = run.getSecondaryResults().get("gc.alloc.rate.norm");
+            System.out.printf("%-26s %10s %12.3f %14.0f%n", name, params.getParam("size"),
+                    run.getPrimaryResult().getScore() / pixels,
+                    alloc == null ? Double.NaN : alloc.getScore());
+        }
+    }
+}
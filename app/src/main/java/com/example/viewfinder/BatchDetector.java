@@ -0,0 +1,484 @@
+package com.example.viewfinder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Offline driver for EdgeDetector: runs one detector over stored frames.
+ *
+ * Inputs are files or directories of NV21 or Y8 frames (a file may hold any
+ * number of frames back to back, e.g. a raw camera dump) or binary PGMs
+ * (likewise concatenated). One reader thread fills frame buffers and a
+ * pool of workers detects and writes each result as an 8-bit PGM. Frame
+ * buffers come from a fixed free list, so memory stays at queueDepth
+ * frames however large the input is, and the reader blocks while every
+ * buffer is in use.
+ */
+public class BatchDetector {
+    public enum Format {
+        NV21,   // YUV420SP camera frames; only the Y plane is used
+        Y8,     // bare 8-bit luma
+        PGM     // binary (P5) graymaps
+    }
+
+    public static class Report {
+        public long frames;
+        public long bytesRead;
+        public long elapsedNanos;
+
+        public double framesPerSecond() {
+            return frames * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        public double megabytesPerSecond() {
+            return bytesRead * 1e3 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames, %.1f MB in %.2f s: %.1f frames/s, %.1f MB/s",
+                    frames, bytesRead / 1e6, elapsedNanos / 1e9,
+                    framesPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    private static class Frame {
+        byte[] data;
+        int width, height;
+        String name;        // output file name, without directory
+    }
+
+    private static final Frame END = new Frame();
+
+    private final CameraMode mode;
+    private final Format format;
+    private final int width, height;    // frame size for NV21 and Y8
+    private final int workers;
+    private final int queueDepth;
+    private final File outDir;          // null only measures
+    private DetectorOptions opts = new DetectorOptions();
+    private boolean streaming;
+
+    public BatchDetector(CameraMode mode, Format format, int width, int height,
+                         int workers, int queueDepth, File outDir) {
+        if (mode == CameraMode.DEFAULT) {
+            throw new IllegalArgumentException("pick a detector, not " + mode);
+        }
+        if (format != Format.PGM && (width <= 0 || height <= 0)) {
+            throw new IllegalArgumentException(format + " input needs a frame size");
+        }
+        if (workers < 1 || queueDepth < workers) {
+            throw new IllegalArgumentException(
+                    "need at least one worker and a buffer per worker, got "
+                            + workers + " workers, " + queueDepth + " buffers");
+        }
+        this.mode = mode;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.workers = workers;
+        this.queueDepth = queueDepth;
+        this.outDir = outDir;
+    }
+
+    public BatchDetector options(DetectorOptions opts) {
+        this.opts = opts;
+        return this;
+    }
+
+    /**
+     * Canny only: run each frame through StreamingCanny, so a worker needs a
+     * few rows of scratch instead of several full-frame planes. Frames are
+     * thresholded on their own statistics, as in the default path.
+     */
+    public BatchDetector streaming(boolean streaming) {
+        if (streaming && mode != CameraMode.CANNY) {
+            throw new IllegalArgumentException("only canny can stream, not " + mode);
+        }
+        this.streaming = streaming;
+        return this;
+    }
+
+    public Report run(List<File> inputs) throws IOException, InterruptedException {
+        final BlockingQueue<Frame> free = new ArrayBlockingQueue<>(queueDepth);
+        final BlockingQueue<Frame> work = new ArrayBlockingQueue<>(queueDepth + workers);
+        for (int i=0; i<queueDepth; i++) {
+            free.add(new Frame());
+        }
+        final IOException[] failure = new IOException[1];     // first worker error
+        final long[] done = new long[1];
+
+        Thread[] pool = new Thread[workers];
+        for (int i=0; i<workers; i++) {
+            pool[i] = new Thread(new Runnable() {
+                public void run() {
+                    Worker w = new Worker();
+                    try {
+                        Frame f;
+                        while ((f = work.take()) != END) {
+                            // after a failure keep draining, so the reader never waits on us
+                            IOException error = null;
+                            try {
+                                if (failure[0] == null) w.process(f);
+                            } catch (IOException e) {
+                                error = e;
+                            } catch (RuntimeException e) {
+                                error = new IOException(f.name + ": " + e, e);
+                            } finally {
+                                free.put(f);
+                            }
+                            if (error != null) {
+                                synchronized (failure) {
+                                    if (failure[0] == null) failure[0] = error;
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (done) {
+                        done[0] += w.frames;
+                    }
+                }
+            }, "BatchDetector-" + i);
+            pool[i].start();
+        }
+
+        Report report = new Report();
+        long start = System.nanoTime();
+        try {
+            for (File input : inputs) {
+                InputStream in = new BufferedInputStream(new FileInputStream(input), 1 << 16);
+                try {
+                    String base = baseName(input);
+                    for (int n=0; ; n++) {
+                        Frame f = free.take();     // blocks while every buffer is in flight
+                        if (!read(in, f)) {
+                            free.put(f);
+                            break;
+                        }
+                        f.name = String.format("%s_%06d.pgm", base, n);
+                        report.bytesRead += frameBytes(f);
+                        work.put(f);
+                        synchronized (failure) {
+                            if (failure[0] != null) throw failure[0];
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            for (int i=0; i<workers; i++) {
+                work.put(END);
+            }
+            for (Thread t : pool) {
+                t.join();
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        if (failure[0] != null) throw failure[0];
+        report.frames = done[0];
+        return report;
+    }
+
+    private int frameBytes(Frame f) {
+        int pixels = f.width * f.height;
+        return format == Format.NV21 ? pixels * 3 / 2 : pixels;
+    }
+
+    // Fills f with the next frame of in; false at a clean end of input
+    private boolean read(InputStream in, Frame f) throws IOException {
+        if (format == Format.PGM) {
+            if (!readPgmHeader(in, f)) return false;
+        } else {
+            f.width = width;
+            f.height = height;
+        }
+        int size = frameBytes(f);
+        if (f.data == null || f.data.length < size) {
+            f.data = new byte[size];
+        }
+        int got = readFully(in, f.data, size);
+        if (got == 0 && format != Format.PGM) return false;
+        if (got < size) {
+            throw new EOFException("truncated frame: " + got + " of " + size + " bytes");
+        }
+        return true;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int got = 0;
+        while (got < len) {
+            int n = in.read(buf, got, len - got);
+            if (n < 0) break;
+            got += n;
+        }
+        return got;
+    }
+
+    private static boolean readPgmHeader(InputStream in, Frame f) throws IOException {
+        String magic = pgmToken(in);
+        if (magic == null) return false;
+        if (!magic.equals("P5")) {
+            throw new IOException("not a binary PGM: " + magic);
+        }
+        f.width = pgmNumber(in);
+        f.height = pgmNumber(in);
+        if (f.width <= 0 || f.height <= 0 || (long) f.width * f.height > Integer.MAX_VALUE) {
+            throw new IOException("bad PGM size " + f.width + "x" + f.height);
+        }
+        int maxval = pgmNumber(in);
+        if (maxval < 1 || maxval > 255) {
+            throw new IOException("only 8-bit PGMs are supported, maxval " + maxval);
+        }
+        return true;
+    }
+
+    private static int pgmNumber(InputStream in) throws IOException {
+        String token = pgmToken(in);
+        if (token == null) throw new EOFException("truncated PGM header");
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("bad PGM header field " + token);
+        }
+    }
+
+    // Next header token; consumes the single whitespace byte after it
+    private static String pgmToken(InputStream in) throws IOException {
+        int b = in.read();
+        while (b == '#' || Character.isWhitespace(b)) {
+            if (b == '#') {
+                while (b != '\n' && b != -1) b = in.read();
+            }
+            b = in.read();
+        }
+        if (b == -1) return null;
+        StringBuilder sb = new StringBuilder();
+        while (b != -1 && !Character.isWhitespace(b)) {
+            sb.append((char) b);
+            b = in.read();
+        }
+        return sb.toString();
+    }
+
+    private static String baseName(File f) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // Per-thread state, so workers share nothing but the queues
+    private class Worker {
+        Workspace ws;
+        Plane gray;
+        StreamingCanny canny;
+        byte[] out;
+        long frames;
+
+        void process(Frame f) throws IOException {
+            if (streaming) {
+                processStreaming(f);
+                return;
+            }
+            long start = System.nanoTime();
+            Workspace before = ws;
+            long wsBytes = before == null ? 0 : before.allocatedBytes();
+            ws = Workspace.reuse(ws, f.width, f.height);
+            Plane result;
+            if (format == Format.NV21) {
+                result = EdgeDetector.Detect(mode, f.data, f.width, f.height, ws, opts);
+            } else {
+                if (gray == null || gray.width != f.width || gray.height != f.height) {
+                    gray = new Plane(f.width, f.height);
+                }
+                for (int i=0; i<f.width * f.height; i++) {
+                    gray.data[i] = f.data[i] & 0xFF;
+                }
+                result = EdgeDetector.Detect(mode, gray, ws, opts);
+            }
+            frames++;
+            if (outDir != null && result != null) {
+                write(result, new File(outDir, f.name));
+            }
+            if (opts.metrics != null) {
+                long allocated = ws.allocatedBytes() - (ws == before ? wsBytes : 0);
+                opts.metrics.frameDone(System.nanoTime() - start, allocated);
+            }
+        }
+
+        void processStreaming(Frame f) throws IOException {
+            long start = System.nanoTime();
+            long before = 0;
+            if (canny == null || canny.width != f.width || canny.height != f.height) {
+                canny = new StreamingCanny(f.width, f.height).setExact(true);
+            } else {
+                before = canny.workingBytes();
+            }
+            ensureOut(f.width * f.height);
+            if (format == Format.NV21) {
+                canny.detect(f.data, out, opts);
+            } else {
+                canny.detectGray(f.data, out, opts);
+            }
+            frames++;
+            if (outDir != null) {
+                writePgm(f.width, f.height, new File(outDir, f.name));
+            }
+            if (opts.metrics != null) {
+                opts.metrics.frameDone(System.nanoTime() - start, canny.workingBytes() - before);
+            }
+        }
+
+        void ensureOut(int size) {
+            if (out == null || out.length < size) {
+                out = new byte[size];
+            }
+        }
+
+        void write(Plane result, File file) throws IOException {
+            int cols = result.width;
+            int rows = result.height;
+            ensureOut(cols * rows);
+            for (int r=0; r<rows; r++) {
+                int in = result.index(r, 0);
+                for (int c=0; c<cols; c++) {
+                    int v = result.data[in + c];
+                    out[r * cols + c] = (byte) (v > 0xFF ? 0xFF : v);
+                }
+            }
+            writePgm(cols, rows, file);
+        }
+
+        // The first cols * rows bytes of out
+        void writePgm(int cols, int rows, File file) throws IOException {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+            try {
+                os.write(("P5\n" + cols + " " + rows + "\n255\n").getBytes("US-ASCII"));
+                os.write(out, 0, cols * rows);
+            } finally {
+                os.close();
+            }
+        }
+    }
+
+    private static List<File> expand(List<String> paths) {
+        List<File> files = new ArrayList<>();
+        for (String p : paths) {
+            File f = new File(p);
+            File[] children = f.listFiles();
+            if (children == null) {
+                files.add(f);
+                continue;
+            }
+            Arrays.sort(children);
+            for (File c : children) {
+                if (c.isFile()) files.add(c);
+            }
+        }
+        return files;
+    }
+
+    private static void usage() {
+        System.err.println("usage: BatchDetector --mode sobel|prewitt|canny --format nv21|y8|pgm\n"
+                + "         [--size WxH] [--workers N] [--queue N] [--out DIR] [--l1] [--stream]\n"
+                + "         [--stats]\n"
+                + "         FILE|DIR...\n"
+                + "  --size     frame size, required for nv21 and y8\n"
+                + "  --workers  detector threads (default: available processors)\n"
+                + "  --queue    frame buffers in flight (default: 2 per worker)\n"
+                + "  --out      write each result as DIR/<input>_<n>.pgm; omit to only measure\n"
+                + "  --stream   canny only: stream rows through line buffers, so memory\n"
+                + "             doesn't grow with the frame size; edges come out as 0/255\n"
+                + "  --stats    print per-stage latency percentiles over the whole run\n"
+                + "SIMD kernels need the vector classes on the class path and\n"
+                + "java --add-modules jdk.incubator.vector; -Dviewfinder.simd=false turns them off");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        CameraMode mode = null;
+        Format format = null;
+        int width = 0, height = 0;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        File outDir = null;
+        boolean l1 = false;
+        boolean stats = false;
+        boolean stream = false;
+        List<String> inputs = new ArrayList<>();
+        try {
+            for (int i=0; i<args.length; i++) {
+                String a = args[i];
+                if (a.equals("--mode")) {
+                    mode = CameraMode.valueOf(args[++i].toUpperCase());
+                } else if (a.equals("--format")) {
+                    format = Format.valueOf(args[++i].toUpperCase());
+                } else if (a.equals("--size")) {
+                    String[] wh = args[++i].split("x");
+                    width = Integer.parseInt(wh[0]);
+                    height = Integer.parseInt(wh[1]);
+                } else if (a.equals("--workers")) {
+                    workers = Integer.parseInt(args[++i]);
+                } else if (a.equals("--queue")) {
+                    queue = Integer.parseInt(args[++i]);
+                } else if (a.equals("--out")) {
+                    outDir = new File(args[++i]);
+                } else if (a.equals("--l1")) {
+                    l1 = true;
+                } else if (a.equals("--stream")) {
+                    stream = true;
+                } else if (a.equals("--stats")) {
+                    stats = true;
+                } else if (a.startsWith("--")) {
+                    usage();
+                } else {
+                    inputs.add(a);
+                }
+            }
+        } catch (RuntimeException e) {     // missing value, bad number or unknown name
+            usage();
+        }
+        if (mode == null || format == null || inputs.isEmpty()) {
+            usage();
+        }
+        if (outDir != null && !outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("cannot create " + outDir);
+            System.exit(1);
+        }
+
+        BatchDetector batch;
+        try {
+            batch = new BatchDetector(mode, format, width, height, workers,
+                    queue < 0 ? 2 * workers : queue, outDir).streaming(stream);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            return;
+        }
+        DetectorOptions opts = new DetectorOptions().l1Magnitude(l1);
+        if (stats) {
+            opts.metrics(new StageMetrics(Long.MAX_VALUE));     // one window for the whole run
+        }
+        batch.options(opts);
+        Report report = batch.run(expand(inputs));
+        System.out.println(mode + " with " + workers + " workers, " + RowKernels.ACTIVE.name()
+                + " row kernels: " + report);
+        if (stats) {
+            System.out.println(opts.metrics.snapshot());
+        }
+    }
+}
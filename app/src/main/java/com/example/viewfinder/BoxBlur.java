@@ -0,0 +1,122 @@
+package com.example.viewfinder;
+
+import java.util.Arrays;
+
+/**
+ * Box (mean) blur with running sums, a cheaper Canny pre-blur than the
+ * Gaussian: each pass adds the pixel entering the window and subtracts the
+ * one leaving it, so the cost per pixel is the same for any size.
+ *
+ * Like GaussianBlur it is a SeparableBlur, so it goes in DetectorOptions.blur
+ * and runs in the same strip stages and in StreamingCanny. The vertical
+ * pass divides by size^2 with a rounding multiply-shift instead of a divide.
+ * Input is 8 bit; sigma reports the Gaussian a box of this size stands in for.
+ */
+public class BoxBlur extends SeparableBlur {
+    static final int MAX_SIZE = 127;        // keeps size^2 * 255 and the reciprocal product in range
+    private static final int RECIPROCAL_SHIFT = 40;
+
+    private final int[] ones;           // taps for verticalRow
+    private final int area;
+    private final long reciprocal;      // ceil(2^40 / (2 * area))
+
+    // Per-thread column sums of the vertical pass, so strips don't allocate
+    private static final ThreadLocal<int[]> COLUMNS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[0];
+        }
+    };
+
+    public BoxBlur(int size) {
+        super(Math.sqrt((size * size - 1) / 12.0), checkSize(size));
+        ones = new int[size];
+        Arrays.fill(ones, 1);
+        area = size * size;
+        long twice = 2L * area;
+        reciprocal = ((1L << RECIPROCAL_SHIFT) + twice - 1) / twice;
+    }
+
+    private static int checkSize(int size) {
+        if (size < 1 || size % 2 == 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("box size must be odd and at most " + MAX_SIZE
+                    + ", got " + size);
+        }
+        return size;
+    }
+
+    // round(sum / area), exact for any sum a box of 8 bit pixels can reach
+    int scale(int sum) {
+        return (int) (((2L * sum + area) * reciprocal) >>> RECIPROCAL_SHIFT);
+    }
+
+    // Row sums over the window, not yet divided
+    @Override
+    public void horizontal(Plane src, Plane tmp, int rowStart, int rowEnd) {
+        int cols = src.width;
+        if (cols == 0) return;
+        int half = size / 2;
+        int[] in = src.data;
+        int[] out = tmp.data;
+        for (int r=rowStart; r<rowEnd; r++) {
+            int inRow = src.index(r, 0);
+            int outRow = tmp.index(r, 0);
+            int first = in[inRow];
+            int last = in[inRow + cols - 1];
+            int sum = first * (half + 1);
+            for (int k=1; k<=half; k++) {
+                sum += in[inRow + Math.min(k, cols - 1)];
+            }
+            out[outRow] = sum;
+            for (int c=1; c<cols; c++) {
+                sum += c + half < cols ? in[inRow + c + half] : last;
+                sum -= c - half - 1 >= 0 ? in[inRow + c - half - 1] : first;
+                out[outRow + c] = sum;
+            }
+        }
+    }
+
+    // Column sums slide down the strip a row at a time
+    @Override
+    public void vertical(Plane tmp, Plane dst, int rowStart, int rowEnd) {
+        if (rowStart >= rowEnd) return;
+        int cols = tmp.width;
+        int half = size / 2;
+        int bottom = tmp.height - 1;
+        int[] in = tmp.data;
+        int[] sums = COLUMNS.get();
+        if (sums.length < cols) {
+            sums = new int[cols];
+            COLUMNS.set(sums);
+        }
+        Arrays.fill(sums, 0, cols, 0);
+        for (int t=rowStart-half; t<=rowStart+half; t++) {
+            int row = tmp.index(Math.max(0, Math.min(bottom, t)), 0);
+            for (int c=0; c<cols; c++) {
+                sums[c] += in[row + c];
+            }
+        }
+        for (int r=rowStart; r<rowEnd; r++) {
+            int outRow = dst.index(r, 0);
+            for (int c=0; c<cols; c++) {
+                dst.data[outRow + c] = scale(sums[c]);
+            }
+            if (r + 1 < rowEnd) {
+                int add = tmp.index(Math.min(bottom, r + half + 1), 0);
+                int sub = tmp.index(Math.max(0, r - half), 0);
+                for (int c=0; c<cols; c++) {
+                    sums[c] += in[add + c] - in[sub + c];
+                }
+            }
+        }
+    }
+
+    // The rows are all there already; adding them up is size adds a pixel
+    @Override
+    void verticalRow(int[] in, int[] rows, int[] out, int outPos, int count) {
+        RowKernels.ACTIVE.combineRows(in, rows, ones, out, outPos, count, 0);
+        for (int k=0; k<count; k++) {
+            out[outPos + k] = scale(out[outPos + k]);
+        }
+    }
+}
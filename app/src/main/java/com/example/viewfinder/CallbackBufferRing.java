@@ -0,0 +1,93 @@
+package com.example.viewfinder;
+
+/**
+ * A fixed set of preview buffers shared between the camera and the
+ * FrameProcessor, so no frame needs a fresh byte[] or an extra copy.
+ *
+ * Every buffer is either queued with the camera (via the Sink, which on the
+ * device is Camera.addCallbackBuffer) or held by us while a frame in it is
+ * being processed. acquire() records that the camera delivered a buffer and
+ * release() queues it again. After close() released buffers are kept back,
+ * since the camera they would go to is gone. The sink is only called with
+ * the ring's lock held, so once close() returns no release is still
+ * queuing; the sink must not call back into the ring.
+ */
+public class CallbackBufferRing implements FrameProcessor.BufferOwner {
+    public interface Sink {
+        void queue(byte[] buffer);
+    }
+
+    private static final int QUEUED = 0;
+    private static final int HELD = 1;
+
+    private final byte[][] buffers;
+    private final int[] state;
+    private final Sink sink;
+    private boolean started;
+    private boolean closed;
+
+    public CallbackBufferRing(int count, int bufferSize, Sink sink) {
+        if (count < 1) {
+            throw new IllegalArgumentException("need at least one buffer, got " + count);
+        }
+        buffers = new byte[count][bufferSize];
+        state = new int[count];
+        this.sink = sink;
+    }
+
+    public int bufferCount() {
+        return buffers.length;
+    }
+
+    public int bufferSize() {
+        return buffers[0].length;
+    }
+
+    // Hands every buffer to the camera; call once before starting the preview
+    public synchronized void start() {
+        if (started || closed) return;
+        started = true;
+        for (int i=0; i<buffers.length; i++) {
+            state[i] = QUEUED;
+            sink.queue(buffers[i]);
+        }
+    }
+
+    /**
+     * Marks a buffer the camera just delivered as ours. Returns false if it
+     * is not one of this ring's buffers (e.g. left over from before a resize).
+     */
+    public synchronized boolean acquire(byte[] buffer) {
+        int i = indexOf(buffer);
+        if (i < 0) return false;
+        state[i] = HELD;
+        return true;
+    }
+
+    public synchronized void release(byte[] buffer) {
+        int i = indexOf(buffer);
+        if (i < 0 || state[i] != HELD) return;     // not ours, or already queued
+        state[i] = QUEUED;
+        if (closed) return;
+        sink.queue(buffer);
+    }
+
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized int heldCount() {
+        int n = 0;
+        for (int s : state) {
+            if (s == HELD) n++;
+        }
+        return n;
+    }
+
+    private int indexOf(byte[] buffer) {
+        for (int i=0; i<buffers.length; i++) {
+            if (buffers[i] == buffer) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.viewfinder;
+
+/**
+ * How Canny picks its hysteresis thresholds.
+ *
+ * MEAN is the original rule: 0.3 and 0.8 times the mean of the suppressed
+ * magnitudes, which needs its own pass over the frame. The adaptive methods
+ * instead read a histogram of the gradient magnitude that the gradient
+ * stage fills as it goes: PERCENTILE puts the high threshold at a fixed
+ * fraction of the pixels (as MATLAB's edge() does), OTSU at the split that
+ * best separates edge from background magnitudes. The low threshold is
+ * lowRatio times the high one. With smoothing > 0 the high threshold is an
+ * exponential average over frames, so the edge map doesn't flicker when
+ * the scene changes slightly.
+ *
+ * LOCAL applies the MEAN rule per pixel, to the mean of the suppressed
+ * magnitudes in the (2 * radius + 1)^2 window around it (from an
+ * IntegralImage), so a dim corner isn't judged by the bright middle of the
+ * frame. Where the local mean falls below floor times the frame's mean it
+ * is raised to that, which keeps sensor noise in flat areas out.
+ */
+public class CannyThresholds {
+    public enum Method {
+        MEAN,
+        PERCENTILE,
+        OTSU,
+        LOCAL
+    }
+
+    public static final CannyThresholds MEAN = new CannyThresholds(Method.MEAN, 0, 0, 0, 0, 0);
+
+    // Magnitudes at or above this share the last histogram bin; Sobel stays below 2041
+    static final int BINS = 2048;
+
+    public final Method method;
+    public final double highPercentile;     // PERCENTILE: fraction of pixels below the high threshold
+    public final double lowRatio;
+    public final double smoothing;          // weight of the previous frame's threshold, 0..1
+    public final int radius;                // LOCAL: window half size
+    public final double floor;              // LOCAL: least local mean, as a fraction of the frame's
+
+    private CannyThresholds(Method method, double highPercentile, double lowRatio, double smoothing,
+                            int radius, double floor) {
+        if (highPercentile < 0 || highPercentile > 1 || lowRatio < 0 || lowRatio > 1
+                || smoothing < 0 || smoothing >= 1 || floor < 0 || floor > 1
+                || (method == Method.LOCAL && radius < 1)) {
+            throw new IllegalArgumentException("bad thresholds: percentile " + highPercentile
+                    + ", low ratio " + lowRatio + ", smoothing " + smoothing
+                    + ", radius " + radius + ", floor " + floor);
+        }
+        this.method = method;
+        this.highPercentile = highPercentile;
+        this.lowRatio = lowRatio;
+        this.smoothing = smoothing;
+        this.radius = radius;
+        this.floor = floor;
+    }
+
+    public static CannyThresholds percentile(double highPercentile, double lowRatio) {
+        return new CannyThresholds(Method.PERCENTILE, highPercentile, lowRatio, 0, 0, 0);
+    }
+
+    public static CannyThresholds otsu(double lowRatio) {
+        return new CannyThresholds(Method.OTSU, 0, lowRatio, 0, 0, 0);
+    }
+
+    public static CannyThresholds local(int radius, double floor) {
+        return new CannyThresholds(Method.LOCAL, 0, 0, 0, radius, floor);
+    }
+
+    // Smoothing only applies to the histogram methods
+    public CannyThresholds smoothed(double smoothing) {
+        return new CannyThresholds(method, highPercentile, lowRatio, smoothing, radius, floor);
+    }
+
+    // Reads the gradient stage's magnitude histogram
+    boolean adaptive() {
+        return method == Method.PERCENTILE || method == Method.OTSU;
+    }
+
+    // Exponential average of the high threshold over frames; previous <= 0 starts afresh
+    double smooth(double previous, int high) {
+        if (smoothing > 0 && previous > 0) {
+            return smoothing * previous + (1 - smoothing) * high;
+        }
+        return high;
+    }
+
+    // High threshold for a magnitude histogram of BINS bins; strong pixels are >= it
+    int high(int[] hist) {
+        long total = 0;
+        for (int n : hist) {
+            total += n;
+        }
+        if (total == 0) return 1;
+        int t = method == Method.OTSU ? otsu(hist, total) + 1 : percentile(hist, total);
+        return Math.max(1, t);      // never let flat (zero) pixels count as strong
+    }
+
+    private int percentile(int[] hist, long total) {
+        long rank = (long) Math.ceil(highPercentile * total);
+        long seen = 0;
+        for (int i=0; i<hist.length; i++) {
+            seen += hist[i];
+            if (seen >= rank) return i + 1;
+        }
+        return hist.length;
+    }
+
+    // Last bin of the lower class at the maximum between-class variance
+    private static int otsu(int[] hist, long total) {
+        double sumAll = 0;
+        for (int i=0; i<hist.length; i++) {
+            sumAll += (double) i * hist[i];
+        }
+        double sumBelow = 0;
+        long below = 0;
+        double best = -1;
+        int split = 0;
+        for (int t=0; t<hist.length; t++) {
+            below += hist[t];
+            if (below == 0) continue;
+            long above = total - below;
+            if (above == 0) break;
+            sumBelow += (double) t * hist[t];
+            double meanBelow = sumBelow / below;
+            double meanAbove = (sumAll - sumBelow) / above;
+            double d = meanBelow - meanAbove;
+            double between = (double) below * above * d * d;
+            if (between > best) {
+                best = between;
+                split = t;
+            }
+        }
+        return split;
+    }
+}
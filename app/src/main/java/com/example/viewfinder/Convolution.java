@@ -0,0 +1,188 @@
+package com.example.viewfinder;
+
+/**
+ * Convolution over planes with replicated borders.
+ *
+ * Separable kernels run as a horizontal pass into a scratch plane followed
+ * by a vertical pass, which is k.rows + k.cols multiplies per pixel instead of
+ * k.rows * k.cols. Interior pixels are read without any clamping; only the
+ * few border columns go through Plane.getClamped. Every method works on the
+ * output rows [rowStart, rowEnd) so callers can split a frame into strips.
+ *
+ * Like the original ApplyKernel this is a correlation (the kernel is not
+ * flipped), and the results match the plain 2D loop exactly.
+ *
+ * The detector itself only comes here for the double kernel (the null blur
+ * option). Its 3x3 gradients run fused in Gradient and its blur in
+ * GaussianBlur, so the Kernel entry points are the general reference those
+ * are tested and benchmarked against, and the way to run any other kernel
+ * such as the 5x5 Sobel operators.
+ */
+public class Convolution {
+
+    public static void apply(Plane src, Kernel k, Plane dst, Plane tmp, boolean clampNegatives) {
+        apply(src, k, dst, tmp, clampNegatives, 0, src.height);
+    }
+
+    public static void apply(Plane src, Kernel k, Plane dst, Plane tmp, boolean clampNegatives,
+                             int rowStart, int rowEnd) {
+        if (k.isSeparable()) {
+            int hr = k.rows / 2;
+            int first = Math.max(0, rowStart - hr);
+            int last = Math.min(src.height, rowEnd + hr);
+            horizontal(src, k.row, tmp, first, last);
+            vertical(tmp, k.col, dst, rowStart, rowEnd);
+            if (clampNegatives) {
+                clampNegatives(dst, rowStart, rowEnd);
+            }
+        } else {
+            apply2D(src, k, dst, clampNegatives, rowStart, rowEnd);
+        }
+    }
+
+    // 1D pass along each row of [rowStart, rowEnd)
+    static void horizontal(Plane src, int[] taps, Plane dst, int rowStart, int rowEnd) {
+        int cols = src.width;
+        int half = taps.length / 2;
+        int[] in = src.data;
+        int[] out = dst.data;
+        int interiorEnd = Math.max(half, cols - half);
+
+        for (int r=rowStart; r<rowEnd; r++) {
+            int inRow = src.index(r, 0);
+            int outRow = dst.index(r, 0);
+
+            for (int c=0; c<Math.min(half, cols); c++) {
+                out[outRow + c] = horizontalClamped(src, taps, r, c);
+            }
+            if (cols > 2 * half) {
+                RowKernels.ACTIVE.correlate(in, inRow, taps, out, outRow + half, cols - 2 * half);
+            }
+            for (int c=interiorEnd; c<cols; c++) {
+                out[outRow + c] = horizontalClamped(src, taps, r, c);
+            }
+        }
+    }
+
+    private static int horizontalClamped(Plane src, int[] taps, int r, int c) {
+        int half = taps.length / 2;
+        int sum = 0;
+        for (int t=0; t<taps.length; t++) {
+            sum += taps[t] * src.getClamped(r, c + t - half);
+        }
+        return sum;
+    }
+
+    // 1D pass down each column, clamping the source row once per tap rather than per pixel
+    static void vertical(Plane src, int[] taps, Plane dst, int rowStart, int rowEnd) {
+        vertical(src, taps, dst, rowStart, rowEnd, 0);
+    }
+
+    // The same, finishing each row with a rounding shift right by shift bits when shift > 0
+    static void vertical(Plane src, int[] taps, Plane dst, int rowStart, int rowEnd, int shift) {
+        int half = taps.length / 2;
+        int[] rows = TAP_ROWS.get();
+        if (rows.length < taps.length) {
+            rows = new int[taps.length];
+            TAP_ROWS.set(rows);
+        }
+
+        for (int r=rowStart; r<rowEnd; r++) {
+            for (int t=0; t<taps.length; t++) {
+                int sr = Math.max(0, Math.min(src.height - 1, r + t - half));
+                rows[t] = src.index(sr, 0);
+            }
+            RowKernels.ACTIVE.combineRows(src.data, rows, taps, dst.data, dst.index(r, 0),
+                    src.width, shift);
+        }
+    }
+
+    // Source row offsets per tap, kept per thread so strips don't allocate
+    private static final ThreadLocal<int[]> TAP_ROWS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+
+    static void clampNegatives(Plane p, int rowStart, int rowEnd) {
+        for (int r=rowStart; r<rowEnd; r++) {
+            int row = p.index(r, 0);
+            for (int c=0; c<p.width; c++) {
+                if (p.data[row + c] < 0) p.data[row + c] = 0;
+            }
+        }
+    }
+
+    static void apply2D(Plane src, Kernel k, Plane dst, boolean clampNegatives,
+                        int rowStart, int rowEnd) {
+        int rows = src.height;
+        int cols = src.width;
+        int hr = k.rows / 2;
+        int hc = k.cols / 2;
+        int[] in = src.data;
+        int[] w = k.weights;
+
+        for (int r=rowStart; r<rowEnd; r++) {
+            int outRow = dst.index(r, 0);
+            boolean interiorRow = r >= hr && r < rows - hr;
+            for (int c=0; c<cols; c++) {
+                int sum = 0;
+                if (interiorRow && c >= hc && c < cols - hc) {
+                    int wi = 0;
+                    for (int rk=0; rk<k.rows; rk++) {
+                        int i = src.index(r + rk - hr, c - hc);
+                        for (int ck=0; ck<k.cols; ck++) {
+                            sum += w[wi++] * in[i + ck];
+                        }
+                    }
+                } else {
+                    for (int rk=0; rk<k.rows; rk++) {
+                        for (int ck=0; ck<k.cols; ck++) {
+                            sum += k.get(rk, ck) * src.getClamped(r + rk - hr, c + ck - hc);
+                        }
+                    }
+                }
+                dst.data[outRow + c] = (clampNegatives && sum < 0) ? 0 : sum;
+            }
+        }
+    }
+
+    /**
+     * Real-valued 2D kernel, truncated to int like the original ApplyKernel.
+     */
+    public static void apply(Plane src, double[][] k, Plane dst, boolean clampNegatives,
+                             int rowStart, int rowEnd) {
+        int rows = src.height;
+        int cols = src.width;
+        int krows = k.length;
+        int kcols = k[0].length;
+        int hr = krows / 2;
+        int hc = kcols / 2;
+        int[] in = src.data;
+
+        for (int r=rowStart; r<rowEnd; r++) {
+            int outRow = dst.index(r, 0);
+            boolean interiorRow = r >= hr && r < rows - hr;
+            for (int c=0; c<cols; c++) {
+                double sum = 0;
+                if (interiorRow && c >= hc && c < cols - hc) {
+                    for (int rk=0; rk<krows; rk++) {
+                        int i = src.index(r + rk - hr, c - hc);
+                        double[] kr = k[rk];
+                        for (int ck=0; ck<kcols; ck++) {
+                            sum += in[i + ck] * kr[ck];
+                        }
+                    }
+                } else {
+                    for (int rk=0; rk<krows; rk++) {
+                        for (int ck=0; ck<kcols; ck++) {
+                            sum += src.getClamped(r + rk - hr, c + ck - hc) * k[rk][ck];
+                        }
+                    }
+                }
+                dst.data[outRow + c] = (int) (clampNegatives ? Math.max(0, sum) : sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.viewfinder;
+
+/**
+ * Tunables for EdgeDetector. A new instance holds the defaults, which are
+ * what the live preview uses; the overloads without options keep a private
+ * one, so changing an instance never reaches them. What a call fills in
+ * besides its result goes in an EdgeOutputs instead.
+ */
+public class DetectorOptions {
+    // Canny pre-blur, a GaussianBlur or the cheaper BoxBlur; null falls back to the
+    // original double precision 5x5 kernel
+    public SeparableBlur blur = GaussianBlur.DEFAULT;
+
+    // How Canny's hysteresis thresholds are chosen; MEAN is the original behaviour
+    public CannyThresholds thresholds = CannyThresholds.MEAN;
+
+    // |gx| + |gy| instead of the Euclidean gradient magnitude
+    public boolean l1Magnitude = false;
+
+    // Spread each frame over these threads; null runs on the calling thread
+    public StripExecutor executor = null;
+
+    // Per-stage timings go here when set; costs two nanoTime calls per stage
+    public StageMetrics metrics = null;
+
+    public DetectorOptions blur(SeparableBlur blur) {
+        this.blur = blur;
+        return this;
+    }
+
+    public DetectorOptions thresholds(CannyThresholds thresholds) {
+        this.thresholds = thresholds;
+        return this;
+    }
+
+    public DetectorOptions executor(StripExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public DetectorOptions metrics(StageMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public DetectorOptions l1Magnitude(boolean l1) {
+        this.l1Magnitude = l1;
+        return this;
+    }
+}
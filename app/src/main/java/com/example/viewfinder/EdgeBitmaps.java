@@ -0,0 +1,105 @@
+package com.example.viewfinder;
+
+import android.graphics.Bitmap;
+
+/**
+ * The Android side of EdgeDetector: everything that turns a detector plane
+ * into a Bitmap. The detectors themselves only use Plane and int[] and run
+ * on any JVM; this class is the one place the core meets android.graphics.
+ */
+public class EdgeBitmaps {
+    /**
+     * Writes a gray plane into an existing ARGB_8888 bitmap of the same size,
+     * using argb as the staging buffer.
+     */
+    public static void ToBitmap(Plane grayValues, int[] argb, Bitmap bm) {
+        EdgeDetector.ToArgb(grayValues, argb);
+        bm.setPixels(argb, 0, grayValues.width, 0, 0, grayValues.width, grayValues.height);
+    }
+
+    private static Bitmap ToBitmap(Plane grayValues) {
+        if (grayValues.isEmpty()) {
+            return null;
+        }
+        int rows = grayValues.height;
+        int cols = grayValues.width;
+        Bitmap bm = Bitmap.createBitmap(cols, rows, Bitmap.Config.ARGB_8888);
+        ToBitmap(grayValues, new int[rows * cols], bm);
+        return bm;
+    }
+
+    /**
+     * Runs the detector for mode into the caller's ARGB_8888 bitmap, which must
+     * match the frame size. Nothing is allocated once ws has warmed up.
+     */
+    public static void Detect(CameraMode mode, Plane grayscale, Workspace ws, Bitmap out) {
+        Plane result = EdgeDetector.Detect(mode, grayscale, ws);
+        if (result != null) {
+            ToBitmap(result, ws.argb(), out);
+        }
+    }
+
+    public static void Detect(CameraMode mode, Plane grayscale, Workspace ws,
+                              DetectorOptions opts, Bitmap out) {
+        Plane result = EdgeDetector.Detect(mode, grayscale, ws, opts);
+        if (result != null) {
+            ToBitmap(result, ws.argb(), out);
+        }
+    }
+
+    /**
+     * Okay yea before we call this function, we probably need
+     * to do some preprocessing on the output of decodeYUVGray()
+     * because idk wtf it's doing.
+     *
+     * @param grayscale
+     * @return
+     */
+    public static Bitmap GetSobelImage(
+            int[][] grayscale
+    ) {
+        return GetSobelImage(Plane.fromRows(grayscale));
+    }
+
+    public static Bitmap GetSobelImage(
+            Plane grayscale
+    ) {
+        if (grayscale.isEmpty()) {
+            return null;
+        }
+        Workspace ws = new Workspace(grayscale.width, grayscale.height);
+        return ToBitmap(EdgeDetector.SobelMagnitude(grayscale, ws));
+    }
+
+    public static Bitmap GetPrewittImage(
+            int[][] grayscale
+    ) {
+        return GetPrewittImage(Plane.fromRows(grayscale));
+    }
+
+    public static Bitmap GetPrewittImage(
+            Plane grayscale
+    ) {
+        if (grayscale.isEmpty()) {
+            return null;
+        }
+        Workspace ws = new Workspace(grayscale.width, grayscale.height);
+        return ToBitmap(EdgeDetector.PrewittMagnitude(grayscale, ws));
+    }
+
+    public static Bitmap GetCannyImage(
+            int[][] grayscale
+    ) {
+        return GetCannyImage(Plane.fromRows(grayscale));
+    }
+
+    public static Bitmap GetCannyImage(
+            Plane grayscale
+    ) {
+        if (grayscale.isEmpty()) {
+            return null;
+        }
+        Workspace ws = new Workspace(grayscale.width, grayscale.height);
+        return ToBitmap(EdgeDetector.CannyEdges(grayscale, ws));
+    }
+}
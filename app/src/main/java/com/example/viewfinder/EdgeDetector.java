@@ -1,7 +1,8 @@
 package com.example.viewfinder;
 
-import android.graphics.Bitmap;
 import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class EdgeDetector {
     private static final int[][] Sob_K_X_3x3 = new int[][]{
@@ -16,6 +17,22 @@ public class EdgeDetector {
             {-1, -2, -1}
     };
 
+    private static final int[][] Sob_K_X_5x5 = new int[][]{
+            {1, 2, 0, -2, -1},
+            {4, 8, 0, -8, -4},
+            {6, 12, 0, -12, -6},
+            {4, 8, 0, -8, -4},
+            {1, 2, 0, -2, -1}
+    };
+
+    private static final int[][] Sob_K_Y_5x5 = new int[][]{
+            {1, 4, 6, 4, 1},
+            {2, 8, 12, 8, 2},
+            {0, 0, 0, 0, 0},
+            {-2, -8, -12, -8, -2},
+            {-1, -4, -6, -4, -1}
+    };
+
     private static final int[][] Prew_K_X_3x3 = new int[][]{
             {1, 0, -1},
             {1, 0, -1},
@@ -29,7 +46,7 @@ public class EdgeDetector {
     };
 
 
-    private static final double[][] GAUSSIAN = new double[][]{
+    static final double[][] GAUSSIAN = new double[][]{
             {0.01257861635, 0.0251572327, 0.03144654088, 0.0251572327, 0.01257861635},
             {0.0251572327, 0.05660377358, 0.07547169811, 0.05660377358, 0.0251572327},
             {0.03144654088, 0.07547169811, 0.09433962264, 0.07547169811, 0.03144654088},
@@ -37,26 +54,11 @@ public class EdgeDetector {
             {0.01257861635, 0.0251572327, 0.03144654088, 0.0251572327, 0.01257861635},
     };
 
-    private static final double LOWER_THRESH = 0.3;
-    private static final double UPPER_THRESH = 0.8;
+    static final double LOWER_THRESH = 0.3;
+    static final double UPPER_THRESH = 0.8;
 
-    private static final int[] DIRECTION_BINS = new int[]{0, 45, 90, 135};
-
-    private static int[][] magnitude(int[][] Sx, int[][]Sy ) {
-        int rows = Sx.length;
-        int cols = Sx[0].length;
-
-        int[][] mag = new int[rows][cols];
-        for (int r=0; r<rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                int x = Sx[r][c];
-                int y = Sy[r][c];
-
-                mag[r][c] = (int) Math.round(Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2)));
-            }
-        }
-        return mag;
-    }
+    // For the overloads without options; never handed out, so nothing can change it
+    private static final DetectorOptions DEFAULTS = new DetectorOptions();
 
     public static int[][] SobelKernel(SobelOp sobelOp) {
         switch (sobelOp) {
@@ -64,6 +66,10 @@ public class EdgeDetector {
                 return Sob_K_X_3x3;
             case Y_3x3:
                 return Sob_K_Y_3x3;
+            case X_5x5:
+                return Sob_K_X_5x5;
+            case Y_5x5:
+                return Sob_K_Y_5x5;
             default:
                 System.err.printf(
                         "Sobel operator %s not implemented\n",
@@ -86,351 +92,789 @@ public class EdgeDetector {
         }
     }
 
-    private static int GetPixel(int[][] image, int r, int c) {
-        if (image.length == 0) {
-            return 0;
+    static void ApplyKernel(
+            Plane image,
+            double[][] kernel,
+            Plane newImage,
+            int rowStart,
+            int rowEnd) {
+        // Prevent negatives
+        Convolution.apply(image, kernel, newImage, true, rowStart, rowEnd);
+    }
+
+
+    private static void ToGrayValue(Plane grayBits, Plane values, int rowStart, int rowEnd) {
+        int cols = grayBits.width;
+        for (int r=rowStart; r<rowEnd; r++) {
+            int in = grayBits.index(r, 0);
+            int out = values.index(r, 0);
+            for (int c=0; c<cols; c++) {
+                values.data[out + c] = (grayBits.data[in + c] & 0xFF);
+            }
         }
-        if (r < 0) r = 0;
-        if (r >= image.length) r = image.length - 1;
-        if (c < 0) c = 0;
-        if (c >= image[0].length) c = image.length - 1;
+    }
 
-        return image[r][c];
+    // Y plane of a YUV420SP (NV21) frame, offset by -16 and clamped as decodeYUV420SPGrayscale did
+    private static void LumaToGray(byte[] yuv420sp, Plane values, int rowStart, int rowEnd) {
+        int cols = values.width;
+        for (int r=rowStart; r<rowEnd; r++) {
+            LumaRow(yuv420sp, r * cols, values.data, values.index(r, 0), cols);
+        }
     }
 
-    private static double GetPixel(double[][] image, int r, int c) {
-        if (image.length == 0) {
-            return 0;
+    // Same for a Y plane held in a (typically memory-mapped) buffer; absolute gets only, so strips can share it
+    private static void LumaToGray(ByteBuffer luma, Plane values, int rowStart, int rowEnd) {
+        int cols = values.width;
+        for (int r=rowStart; r<rowEnd; r++) {
+            LumaRow(luma, r * cols, values.data, values.index(r, 0), cols);
         }
-        if (r < 0) r = 0;
-        if (r >= image.length) r = image.length - 1;
-        if (c < 0) c = 0;
-        if (c >= image[0].length) c = image.length - 1;
+    }
 
-        return image[r][c];
+    static void LumaRow(byte[] yuv420sp, int in, int[] values, int out, int count) {
+        for (int c=0; c<count; c++) {
+            int y = (yuv420sp[in + c] & 0xFF) - 16;
+            values[out + c] = y < 0 ? 0 : y;
+        }
     }
 
-    private static int[][] ApplyKernel(
-            int[][] image,
-            int[][] kernel) {
+    static void LumaRow(ByteBuffer luma, int in, int[] values, int out, int count) {
+        for (int c=0; c<count; c++) {
+            int y = (luma.get(in + c) & 0xFF) - 16;
+            values[out + c] = y < 0 ? 0 : y;
+        }
+    }
 
-        if (image.length == 0) {
-            return new int[0][0];
+    static void Pack(Plane result, int[] argb, DetectorOptions opts) {
+        if (opts.metrics == null) {
+            ToArgb(result, argb);
+            return;
         }
-        if (kernel.length % 2 == 0) {
-            return image;
+        long start = System.nanoTime();
+        ToArgb(result, argb);
+        opts.metrics.record(StageMetrics.PACK, System.nanoTime() - start);
+    }
+
+    /**
+     * Packs a gray plane into opaque ARGB pixels, row-major with stride = width.
+     */
+    public static void ToArgb(Plane grayValues, int[] argb) {
+        int rows = grayValues.height;
+        int cols = grayValues.width;
+        for (int r=0; r<rows; r++) {
+            int in = grayValues.index(r, 0);
+            int out = r * cols;
+            for (int c=0; c<cols; c++) {
+                int y = grayValues.data[in + c];
+                if (y > 0xFF) y = 0xFF;
+                argb[out + c] = 0xFF000000 | (y << 16) | (y << 8) | y;
+            }
         }
+    }
 
-        int rows = image.length;
-        int cols = image[0].length;
-        int krows = kernel.length;
-        int kcols = kernel[0].length;
-        int[][] newImage = new int[rows][cols];
+    // Neighbours (r + dr, c + dc) and (r - dr, c - dc) per Gradient direction code
+    private static final int[] NEIGHBOUR_DR = {1, 1, 0, 1};
+    private static final int[] NEIGHBOUR_DC = {0, -1, 1, 1};
 
-        for (int r=0; r < rows; r++) {
-            for (int c=0; c < cols; c++) {
-                int sum = 0;
-                for (int rk=0; rk < krows; rk++) {
-                    for (int rc=0; rc < kcols; rc++) {
-                        int dr = rk - (krows / 2);
-                        int dc = rc - (kcols / 2);
-                        sum += GetPixel(image, r + dr, c + dc)
-                                * GetPixel(kernel, rk, rc);
-                    }
+    // The same as index offsets into a packed plane of the given width
+    static int[] neighbourSteps(int width) {
+        int[] steps = new int[4];
+        for (int d=0; d<4; d++) {
+            steps[d] = NEIGHBOUR_DR[d] * width + NEIGHBOUR_DC[d];
+        }
+        return steps;
+    }
+
+    /**
+     * Keeps a magnitude only where it is at least as large as both its
+     * neighbours along the gradient. directions holds Gradient direction
+     * codes and steps comes from neighbourSteps(width); the planes are
+     * packed workspace planes. Interior pixels are read without clamping.
+     */
+    static void suppressNonMaximum(
+            Plane gradients,
+            byte[] directions,
+            int[] steps,
+            Plane values,
+            int rowStart,
+            int rowEnd
+    ) {
+        int rows = gradients.height;
+        int cols = gradients.width;
+        int[] m = gradients.data;
+        int[] out = values.data;
+        for (int r=rowStart; r<rowEnd; r++) {
+            int row = r * cols;
+            if (r == 0 || r == rows - 1 || cols < 3) {
+                for (int c=0; c<cols; c++) {
+                    out[row + c] = suppressClamped(gradients, directions, r, c);
                 }
-                // Prevent negatives
-                newImage[r][c] = Math.max(0, sum);
+                continue;
             }
+            out[row] = suppressClamped(gradients, directions, r, 0);
+            for (int i=row+1; i<row+cols-1; i++) {
+                int grad = m[i];
+                int step = steps[directions[i]];
+                out[i] = grad >= m[i + step] && grad >= m[i - step] ? grad : 0;
+            }
+            out[row + cols - 1] = suppressClamped(gradients, directions, r, cols - 1);
         }
+    }
 
-        return newImage;
+    private static int suppressClamped(Plane gradients, byte[] directions, int r, int c) {
+        int grad = gradients.get(r, c);
+        int d = directions[r * gradients.width + c];
+        int grad1 = gradients.getClamped(r + NEIGHBOUR_DR[d], c + NEIGHBOUR_DC[d]);
+        int grad2 = gradients.getClamped(r - NEIGHBOUR_DR[d], c - NEIGHBOUR_DC[d]);
+        return grad >= grad1 && grad >= grad2 ? grad : 0;
     }
 
-    private static int[][] ApplyKernel(
-            int[][] image,
-            double[][] kernel) {
+    // Apply the lower threshold
+    // Hysteresis - keep weak pixels only when a chain of weak pixels links them to a strong one
+    static void filterSmallValues(
+            Plane img,
+            int[] stack
+    ) {
+        filterSmallValues(img, stack, null, null);
+    }
 
-        if (image.length == 0) {
-            return new int[0][0];
-        }
-        if (kernel.length % 2 == 0) {
-            return image;
+    // The same, also handing the kept pixels to out when it is set (see follow)
+    static void filterSmallValues(
+            Plane img,
+            int[] stack,
+            byte[] directions,
+            EdgeOutputs out
+    ) {
+        int rows = img.height;
+        int cols = img.width;
+        int[] px = img.data;
+        double sum = 0.;
+        for (int r=0; r<rows; r++) {
+            int row = img.index(r, 0);
+            for (int c = 0; c < cols; c++) {
+                sum += px[row + c];
+            }
         }
+        double avg = sum/(rows*cols);
+        // integer pixels: v < x exactly when v < ceil(x)
+        int lower = (int) Math.ceil(LOWER_THRESH * avg);
+        int upper = (int) Math.ceil(UPPER_THRESH * avg);
+        hysteresis(img, lower, upper, stack, directions, out);
+    }
+
+    // Pixels >= upper are strong, pixels >= lower weak, the rest are cleared
+    static void hysteresis(Plane img, int lower, int upper, int[] stack) {
+        hysteresis(img, lower, upper, stack, null, null);
+    }
 
-        int rows = image.length;
-        int cols = image[0].length;
-        int krows = kernel.length;
-        int kcols = kernel[0].length;
-        int[][] newImage = new int[rows][cols];
+    static void hysteresis(Plane img, int lower, int upper, int[] stack,
+                           byte[] directions, EdgeOutputs out) {
+        int rows = img.height;
+        int cols = img.width;
+        int[] px = img.data;
 
-        for (int r=0; r < rows; r++) {
-            for (int c=0; c < cols; c++) {
-                double sum = 0;
-                for (int rk=0; rk < krows; rk++) {
-                    for (int rc=0; rc < kcols; rc++) {
-                        int dr = rk - (krows / 2);
-                        int dc = rc - (kcols / 2);
-                        sum += GetPixel(image, r + dr, c + dc)
-                                * GetPixel(kernel, rk, rc);
-                    }
+        // Kept pixels are stored as ~v (negative), which also marks them visited.
+        // Every pixel is pushed at most once, so the stack never outgrows the frame.
+        int top = 0;
+        for (int r=0; r<rows; r++) {
+            int row = img.index(r, 0);
+            for (int c = 0; c < cols; c++) {
+                int v = px[row + c];
+                if (v >= upper) {
+                    px[row + c] = ~v;
+                    stack[top++] = r * cols + c;
                 }
-                // Prevent negatives
-                newImage[r][c] =(int) Math.max(0, sum);
             }
         }
+        follow(img, lower, stack, top, directions, out);
+    }
 
-        return newImage;
+    /**
+     * Hysteresis on thresholds of each pixel's own neighbourhood (see
+     * CannyThresholds.LOCAL). One pass clears the pixels under their lower
+     * threshold and seeds the strong ones; what is left is weak, so the
+     * chains are then followed with a lower threshold of 1.
+     */
+    static void localHysteresis(Plane img, IntegralImage table, CannyThresholds t, int[] stack) {
+        localHysteresis(img, table, t, stack, null, null);
     }
 
+    static void localHysteresis(Plane img, IntegralImage table, CannyThresholds t, int[] stack,
+                                byte[] directions, EdgeOutputs out) {
+        int rows = img.height;
+        int cols = img.width;
+        int[] px = img.data;
+        int radius = t.radius;
+        table.compute(img);
+        double least = t.floor * table.mean(0, 0, rows, cols);
 
-    private static int[][] ToGrayValue(int[][] grayBits) {
-        if (grayBits.length == 0) {
-            return new int[0][0];
-        }
-        int rows = grayBits.length;
-        int cols = grayBits[0].length;
-        int[][] values = new int[rows][cols];
+        int top = 0;
         for (int r=0; r<rows; r++) {
-            for (int c=0; c<cols; c++) {
-                values[r][c] = (grayBits[r][c] & 0xFF);
+            int row = img.index(r, 0);
+            int r0 = Math.max(0, r - radius);
+            int r1 = Math.min(rows, r + radius + 1);
+            for (int c = 0; c < cols; c++) {
+                int v = px[row + c];
+                if (v <= 0) continue;       // a flat pixel never counts as an edge
+                int c0 = Math.max(0, c - radius);
+                int c1 = Math.min(cols, c + radius + 1);
+                long sum = table.at(r1, c1) - table.at(r1, c0) - table.at(r0, c1) + table.at(r0, c0);
+                double mean = Math.max(least, (double) sum / ((r1 - r0) * (c1 - c0)));
+                if (v >= Math.ceil(UPPER_THRESH * mean)) {
+                    px[row + c] = ~v;
+                    stack[top++] = r * cols + c;
+                } else if (v < Math.ceil(LOWER_THRESH * mean)) {
+                    px[row + c] = 0;
+                }
             }
         }
-        return values;
+        follow(img, 1, stack, top, directions, out);
     }
 
-    private static Bitmap ToBitmap(int[][] grayValues) {
-        if (grayValues.length == 0) {
-            return null;
+    /**
+     * Grows the stack's strong pixels through pixels >= lower, then clears
+     * everything not kept. With out set, that last sweep also hands the kept
+     * nonzero pixels to its list (codes from directions, packed like img,
+     * when the list keeps values), runs and mask.
+     */
+    private static void follow(Plane img, int lower, int[] stack, int top,
+                               byte[] directions, EdgeOutputs out) {
+        int rows = img.height;
+        int cols = img.width;
+        int[] px = img.data;
+        while (top > 0) {
+            int p = stack[--top];
+            int r = p / cols;
+            int c = p - r * cols;
+            int rmin = Math.max(0, r-1);
+            int rmax = Math.min(rows-1, r+1);
+            int cmin = Math.max(0, c-1);
+            int cmax = Math.min(cols-1, c+1);
+            for (int x=rmin; x<=rmax; x++) {
+                int row = img.index(x, 0);
+                for (int y=cmin; y<=cmax; y++) {
+                    int v = px[row + y];
+                    if (v >= lower) {       // weak and not yet kept (kept ones are negative)
+                        px[row + y] = ~v;
+                        stack[top++] = x * cols + y;
+                    }
+                }
+            }
         }
-        int rows = grayValues.length;
-        int cols = grayValues[0].length;
 
-        int[] grayV = new int[rows * cols];
-        for (int r=0; r<rows; r++) {
-            for (int c=0; c<cols; c++) {
-                int y = grayValues[r][c];
-                grayV[r*cols + c] =
-                        0xFF000000 | (y << 16) | (y << 8) | y;
+        EdgeList list = out != null ? out.list : null;
+        EdgeRuns runs = out != null ? out.runs : null;
+        EdgeMask mask = out != null ? out.mask : null;
+        if (list == null && runs == null && mask == null) {
+            for (int r=0; r<rows; r++) {
+                int row = img.index(r, 0);
+                for (int c = 0; c < cols; c++) {
+                    int v = px[row + c];
+                    px[row + c] = v < 0 ? ~v : 0;
+                }
             }
+            return;
         }
 
-        Bitmap bm = Bitmap.createBitmap(cols, rows, Bitmap.Config.ARGB_8888);
-        bm.setPixels(grayV, 0, cols, 0, 0, cols, rows);
-        return bm;
-    }
-
-    private static int[][] getGradientDirection(
-            int[][] G_x,
-            int[][] G_y
-    ) {
-        int rows = G_x.length;
-        int cols = G_x[0].length;
-        int[][] values = new int[rows][cols];
+        boolean values = list != null && list.values;
+        if (values && directions == null) {
+            throw new IllegalArgumentException("edge values need the direction codes");
+        }
+        if (list != null) list.start(cols, rows);
+        if (runs != null) runs.start(cols, rows);
+        if (mask != null) mask.start(cols, rows);
         for (int r=0; r<rows; r++) {
-            for (int c=0; c<cols; c++) {
-                int gx = G_x[r][c];
-                int gy = G_y[r][c];
-                double dir = Math.atan2(gx, gy);
-
-                double diff = 360.;
-                int value = 0;
-                for (int i=0; i < DIRECTION_BINS.length; i++) {
-                    int bin = DIRECTION_BINS[i];
-                    if (dir - bin < diff) {
-                        diff = dir - bin;
-                        value = bin;
+            int row = img.index(r, 0);
+            int run = -1;           // start of the open run
+            for (int c = 0; c < cols; c++) {
+                int v = px[row + c];
+                if (v < -1) {       // kept and nonzero
+                    v = ~v;
+                    px[row + c] = v;
+                    if (list != null) {
+                        int p = r * cols + c;
+                        list.add(p, v, values ? directions[p] : 0);
+                    }
+                    if (mask != null) mask.mark(r, c);
+                    if (run < 0) run = c;
+                } else {
+                    px[row + c] = 0;
+                    if (run >= 0) {
+                        if (runs != null) runs.add(run, c - run);
+                        run = -1;
                     }
                 }
-                values[r][c] = value;
+            }
+            if (runs != null) {
+                if (run >= 0) runs.add(run, cols - run);
+                runs.endRow();
             }
         }
-        return values;
     }
 
-    private static int[][] suppressNonMaximum(
-            int[][] gradients,
-            int[][] directions
-    ) {
-        int rows = gradients.length;
-        int cols = gradients[0].length;
-        int[][] values = new int[rows][cols];
-        for (int r=0; r<rows; r++) {
-            for (int c=0; c<cols; c++) {
-                int grad = gradients[r][c];
-                int dir = directions[r][c];
+    /**
+     * The per-strip work of each detector, split into stages that only read
+     * rows of earlier stages' planes. Run serially it is just a loop over the
+     * whole frame; on a StripExecutor each stage is a barrier, so the strips
+     * see their halo rows complete and the output matches the serial path.
+     * One instance lives in each Workspace.
+     */
+    static final class Stages implements StripExecutor.RowTask {
+        static final int GRAY = 0;
+        static final int BLUR_ROWS = 1;
+        static final int BLUR_COLUMNS = 2;
+        static final int GRADIENT = 3;
+        static final int GRADIENT_MAGNITUDE = 4;
+        static final int SUPPRESS = 5;
+
+        // what each stage counts towards in StageMetrics
+        private static final int[] METRIC = {
+                StageMetrics.DECODE, StageMetrics.BLUR, StageMetrics.BLUR, StageMetrics.GRADIENT,
+                StageMetrics.GRADIENT, StageMetrics.NMS
+        };
+
+        final Workspace ws;
+        final int[] steps;  // NMS neighbour offsets for this width
+        Plane source;       // packed gray pixels, or
+        byte[] luma;        // a raw YUV420SP frame
+        int lumaWidth;
+        ByteBuffer lumaBuffer;  // or a Y plane outside the heap
+        Region region;      // null reads the whole frame 1:1
+        DetectorOptions opts;
+        int gradientWeight;
+        int stage;
+        final long[] nanos = new long[StageMetrics.STAGES];    // this frame, when timing
+        final int[] histogram = new int[CannyThresholds.BINS];  // Canny magnitudes, adaptive thresholds only
+        double smoothedHigh = -1;
+
+        // each strip counts into its thread's own histogram, merged once per strip
+        private static final ThreadLocal<int[]> STRIP_HISTOGRAM = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[CannyThresholds.BINS];
+            }
+        };
 
-                int[] n1 = new int[]{0,0};
-                int[] n2 = new int[]{0,0};
+        Stages(Workspace ws) {
+            this.ws = ws;
+            this.steps = neighbourSteps(ws.width);
+        }
 
-                switch (dir) {
-                    case 0:
-                        n1 = new int[]{r+1,c};
-                        n2 = new int[]{r-1,c};
-                        break;
-                    case 45:
-                        n1 = new int[]{r+1,c-1};
-                        n2 = new int[]{r-1,c+1};
-                        break;
-                    case 90:
-                        n1 = new int[]{r,c-1};
-                        n2 = new int[]{r,c+1};
-                        break;
-                    case 135:
-                        n1 = new int[]{r-1,c-1};
-                        n2 = new int[]{r+1,c+1};
+        public void run(int rowStart, int rowEnd) {
+            switch (stage) {
+                case GRAY:
+                    // preprocess grayscale to convert from bits
+                    if (region != null) {
+                        if (luma != null) {
+                            region.sampleLuma(luma, lumaWidth, ws.gray(), rowStart, rowEnd);
+                        } else {
+                            region.sampleGray(source, ws.gray(), rowStart, rowEnd);
+                        }
+                    } else if (luma != null) {
+                        LumaToGray(luma, ws.gray(), rowStart, rowEnd);
+                    } else if (lumaBuffer != null) {
+                        LumaToGray(lumaBuffer, ws.gray(), rowStart, rowEnd);
+                    } else {
+                        ToGrayValue(source, ws.gray(), rowStart, rowEnd);
+                    }
+                    break;
+                case BLUR_ROWS:
+                    opts.blur.horizontal(ws.gray(), ws.scratch(), rowStart, rowEnd);
+                    break;
+                case BLUR_COLUMNS:
+                    // apply gaussian filter
+                    if (opts.blur != null) {
+                        opts.blur.vertical(ws.scratch(), ws.blurred(), rowStart, rowEnd);
+                    } else {
+                        ApplyKernel(ws.gray(), GAUSSIAN, ws.blurred(), rowStart, rowEnd);
+                    }
+                    break;
+                case GRADIENT:
+                    // apply sobel kernel; direction codes come out of the same sweep
+                    if (!opts.thresholds.adaptive()) {
+                        Gradient.apply(ws.blurred(), Gradient.SOBEL, null, null, ws.magnitude(),
+                                ws.directions(), opts.l1Magnitude, null, rowStart, rowEnd);
                         break;
-                    default:
-                        System.err.printf("Shouldn't get here\n");
-                }
+                    }
+                    int[] local = STRIP_HISTOGRAM.get();
+                    Arrays.fill(local, 0);
+                    Gradient.apply(ws.blurred(), Gradient.SOBEL, null, null, ws.magnitude(),
+                            ws.directions(), opts.l1Magnitude, local, rowStart, rowEnd);
+                    synchronized (histogram) {
+                        for (int i=0; i<local.length; i++) {
+                            histogram[i] += local[i];
+                        }
+                    }
+                    break;
+                case GRADIENT_MAGNITUDE:
+                    // Gx, Gy and magnitude in one sweep; the axis planes are never stored
+                    Gradient.apply(ws.gray(), gradientWeight, null, null,
+                            ws.magnitude(), opts.l1Magnitude, rowStart, rowEnd);
+                    break;
+                case SUPPRESS:
+                    // non-max suppresion
+                    suppressNonMaximum(ws.magnitude(), ws.directions(), steps, ws.suppressed(),
+                            rowStart, rowEnd);
+                    break;
+            }
+        }
 
-                n1[0] = Math.max(Math.min(rows-1, n1[0]), 0);
-                n2[0] = Math.max(Math.min(rows-1, n2[0]), 0);
+        Stages from(Plane grayscale) {
+            return from(grayscale, null);
+        }
 
-                n1[1] = Math.max(Math.min(cols-1, n1[1]), 0);
-                n2[1] = Math.max(Math.min(cols-1, n2[1]), 0);
+        Stages from(Plane grayscale, Region region) {
+            source = grayscale;
+            luma = null;
+            lumaBuffer = null;
+            this.region = region;
+            return this;
+        }
 
-                int grad1 = gradients[n1[0]][n1[1]];
-                int grad2 = gradients[n2[0]][n2[1]];
+        Stages from(byte[] yuv420sp, int width, Region region) {
+            source = null;
+            luma = yuv420sp;
+            lumaWidth = width;
+            lumaBuffer = null;
+            this.region = region;
+            return this;
+        }
 
-                if (grad < grad1 || grad < grad2) {
-                    values[r][c] = 0;
-                } else {
-                    values[r][c] = grad;
-                }
-            }
+        Stages from(ByteBuffer y) {
+            source = null;
+            luma = null;
+            lumaBuffer = y;
+            region = null;
+            return this;
         }
-        return values;
-    }
 
-    // Apply the lower threshold
-    // Hysteresis - Remove points in between the lower+upper threshold depending on neighbors
-    private static int[][] filterSmallValues(
-            int[][] img
-    ) {
-        int rows = img.length;
-        int cols = img[0].length;
-        double sum = 0.;
-        for (int r=0; r<rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                sum += img[r][c];
+        void runStage(StripExecutor exec, int stage) {
+            this.stage = stage;
+            long start = opts.metrics != null ? System.nanoTime() : 0;
+            if (exec == null) {
+                run(0, ws.height);
+            } else {
+                allocate();
+                exec.run(this, ws.height);
+            }
+            if (opts.metrics != null) {
+                nanos[METRIC[stage]] += System.nanoTime() - start;
             }
         }
-        double avg = sum/(rows*cols);
-        double lower_thresh = LOWER_THRESH * avg;
-        double upper_thresh = UPPER_THRESH * avg;
 
-        for (int r=0; r<rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                if (img[r][c] < lower_thresh) {
-                    img[r][c] = 0;
-                } // HYSTERESIS
-                else if (img[r][c] < upper_thresh) {
-                    int rmin = Math.max(0, r-1);
-                    int rmax = Math.min(rows-1, r+1);
-                    int cmin = Math.max(0, c-1);
-                    int cmax = Math.min(cols-1, c+1);
-
-                    boolean next_to_strong_neighbor = false;
-                    for (int x=rmin; x<rmax; x++) {
-                        for (int y=cmin; y<cmax; y++) {
-                            if (img[x][y] >= upper_thresh) {
-                                next_to_strong_neighbor = true;
-                            }
-                        }
-                    }
+        // High threshold from this frame's histogram, averaged with earlier frames if asked to
+        int adaptiveHigh(CannyThresholds t) {
+            smoothedHigh = t.smooth(smoothedHigh, t.high(histogram));
+            return Math.max(1, (int) Math.round(smoothedHigh));
+        }
 
-                    if (!next_to_strong_neighbor) {
-                        img[r][c] = 0;
-                    }
+        // Hands this frame's stage times to the metrics, one sample per stage
+        void flushTimings() {
+            if (opts.metrics == null) return;
+            for (int i=0; i<nanos.length; i++) {
+                if (nanos[i] > 0) {
+                    opts.metrics.record(i, nanos[i]);
+                    nanos[i] = 0;
                 }
             }
         }
+
+        // The Workspace planes are created lazily and unsynchronized, so strips
+        // racing on a fresh workspace could each get their own copy; create
+        // everything this stage touches before fanning out
+        private void allocate() {
+            switch (stage) {
+                case GRAY:
+                    ws.gray();
+                    break;
+                case BLUR_ROWS:
+                    ws.scratch();
+                    break;
+                case BLUR_COLUMNS:
+                    ws.blurred();
+                    break;
+                case GRADIENT:
+                    ws.magnitude();
+                    ws.directions();
+                    break;
+                case GRADIENT_MAGNITUDE:
+                    ws.magnitude();
+                    break;
+                case SUPPRESS:
+                    ws.suppressed();
+                    break;
+            }
+        }
+    }
+
+    private static Plane gradientMagnitude(Stages stages, DetectorOptions opts, int weight) {
+        stages.opts = opts;
+        stages.gradientWeight = weight;
+        stages.runStage(opts.executor, Stages.GRAY);
+        stages.runStage(opts.executor, Stages.GRADIENT_MAGNITUDE);
+        stages.flushTimings();
+        stages.from((Plane) null);
+        return stages.ws.magnitude();
+    }
+
+    private static Plane cannyEdges(Stages stages, DetectorOptions opts, EdgeOutputs out) {
+        stages.opts = opts;
+        stages.runStage(opts.executor, Stages.GRAY);
+        suppressedGradient(stages, opts);
+        Plane img = stages.ws.suppressed();
+        threshold(stages, opts, img, stages.ws.directions(), out);
+        stages.flushTimings();
+        stages.from((Plane) null);
         return img;
     }
 
+    // Canny from ws.gray() up to, not including, the thresholds; leaves ws.suppressed()
+    static void suppressedGradient(Stages stages, DetectorOptions opts) {
+        stages.opts = opts;
+        if (opts.blur != null) {
+            stages.runStage(opts.executor, Stages.BLUR_ROWS);
+        }
+        stages.runStage(opts.executor, Stages.BLUR_COLUMNS);
+        if (opts.thresholds.adaptive()) {
+            Arrays.fill(stages.histogram, 0);
+        }
+        stages.runStage(opts.executor, Stages.GRADIENT);
+        stages.runStage(opts.executor, Stages.SUPPRESS);
+    }
+
     /**
-     * Okay yea before we call this function, we probably need
-     * to do some preprocessing on the output of decodeYUVGray()
-     * because idk wtf it's doing.
-     *
-     * @param grayscale
-     * @return
+     * Canny's last pass, in place on the suppressed magnitudes; adaptive
+     * thresholds read stages.histogram. Kept pixels also go to out (may be
+     * null), with codes from directions.
      */
-    public static Bitmap GetSobelImage(
-            int[][] grayscale
-    ) {
-        if (grayscale.length == 0) {
-            return null;
+    static void threshold(Stages stages, DetectorOptions opts, Plane img, byte[] directions,
+                          EdgeOutputs out) {
+        long start = opts.metrics != null ? System.nanoTime() : 0;
+        int[] stack = stages.ws.stack();
+        if (opts.thresholds.adaptive()) {
+            int high = stages.adaptiveHigh(opts.thresholds);
+            hysteresis(img, (int) Math.ceil(opts.thresholds.lowRatio * high), high, stack,
+                    directions, out);
+        } else if (opts.thresholds.method == CannyThresholds.Method.LOCAL) {
+            localHysteresis(img, stages.ws.integral(), opts.thresholds, stack, directions, out);
+        } else {
+            filterSmallValues(img, stack, directions, out);
+        }
+        if (opts.metrics != null) {
+            stages.nanos[StageMetrics.HYSTERESIS] += System.nanoTime() - start;
         }
-        // preprocess grayscale to convert from bits
-        grayscale = ToGrayValue(grayscale);
+    }
 
-        // apply sobel kernel
-        int[][] kernel_x = SobelKernel(SobelOp.X_3x3);
-        int[][] sobel_x = ApplyKernel(grayscale, kernel_x);
+    /**
+     * How far outside a pixel the detector for mode looks, before any
+     * thresholding: 1 for the 3x3 gradients, and for Canny the blur radius
+     * plus one each for the gradient and non-maximum suppression.
+     */
+    static int halo(CameraMode mode, DetectorOptions opts) {
+        if (mode != CameraMode.CANNY) return 1;
+        int blur = opts.blur != null ? opts.blur.size / 2 : GAUSSIAN.length / 2;
+        return blur + 2;
+    }
 
-        int[][] kernel_y = SobelKernel(SobelOp.Y_3x3);
-        int[][] sobel_y = ApplyKernel(grayscale, kernel_y);
+    private static Plane detect(CameraMode mode, Stages stages, DetectorOptions opts,
+                                EdgeOutputs out) {
+        switch (mode) {
+            case SOBEL:
+                return gradientMagnitude(stages, opts, Gradient.SOBEL);
+            case PREWITT:
+                return gradientMagnitude(stages, opts, Gradient.PREWITT);
+            case CANNY:
+                return cannyEdges(stages, opts, out);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sobel gradient magnitude of a packed gray frame. The returned plane
+     * belongs to ws and is overwritten by the next call that uses it.
+     */
+    public static Plane SobelMagnitude(Plane grayscale, Workspace ws) {
+        return SobelMagnitude(grayscale, ws, DEFAULTS);
+    }
 
-        int[][] sobel_x_y = magnitude(sobel_x, sobel_y);
+    public static Plane SobelMagnitude(Plane grayscale, Workspace ws, DetectorOptions opts) {
+        return gradientMagnitude(stagesFor(grayscale, ws), opts, Gradient.SOBEL);
+    }
 
-        // convert output to bitmap
-        Bitmap bm = ToBitmap(sobel_x_y);
-        return bm;
+    public static Plane PrewittMagnitude(Plane grayscale, Workspace ws) {
+        return PrewittMagnitude(grayscale, ws, DEFAULTS);
     }
 
-    public static Bitmap GetPrewittImage(
-            int[][] grayscale
-    ) {
-        if (grayscale.length == 0) {
-            return null;
+    public static Plane PrewittMagnitude(Plane grayscale, Workspace ws, DetectorOptions opts) {
+        return gradientMagnitude(stagesFor(grayscale, ws), opts, Gradient.PREWITT);
+    }
+
+    public static Plane CannyEdges(Plane grayscale, Workspace ws) {
+        return CannyEdges(grayscale, ws, DEFAULTS);
+    }
+
+    /**
+     * Canny edges of a packed gray frame. With opts.executor set the blur,
+     * gradient, direction and non-maximum suppression stages are spread over
+     * its threads; the final thresholding pass stays serial.
+     */
+    public static Plane CannyEdges(Plane grayscale, Workspace ws, DetectorOptions opts) {
+        return CannyEdges(grayscale, ws, opts, null);
+    }
+
+    // The same, also collecting the edge pixels into out
+    public static Plane CannyEdges(Plane grayscale, Workspace ws, DetectorOptions opts,
+                                   EdgeOutputs out) {
+        return cannyEdges(stagesFor(grayscale, ws), opts, out);
+    }
+
+    // ws's stages set up to read grayscale, which must be ws's size
+    private static Stages stagesFor(Plane grayscale, Workspace ws) {
+        checkRegion(null, grayscale.width, grayscale.height, ws);
+        return ws.stages().from(grayscale);
+    }
+
+    /**
+     * Runs the detector for mode and leaves the packed ARGB pixels in argb
+     * (stride = width). Nothing is allocated once ws has warmed up.
+     */
+    public static void Detect(CameraMode mode, Plane grayscale, Workspace ws, int[] argb) {
+        Detect(mode, grayscale, ws, DEFAULTS, argb);
+    }
+
+    public static void Detect(CameraMode mode, Plane grayscale, Workspace ws,
+                              DetectorOptions opts, int[] argb) {
+        Plane result = Detect(mode, grayscale, ws, opts);
+        if (result != null) {
+            Pack(result, argb, opts);
         }
-        // preprocess grayscale to convert from bits
-        grayscale = ToGrayValue(grayscale);
+    }
 
-        // apply  kernel
-        int[][] kernel_x = PrewittKernel(PrewittOp.X_3x3);
-        int[][] G_x = ApplyKernel(grayscale, kernel_x);
+    public static Plane Detect(CameraMode mode, Plane grayscale, Workspace ws) {
+        return Detect(mode, grayscale, ws, DEFAULTS);
+    }
 
-        int[][] kernel_y = PrewittKernel(PrewittOp.Y_3x3);
-        int[][] G_y = ApplyKernel(grayscale, kernel_y);
+    public static Plane Detect(CameraMode mode, Plane grayscale, Workspace ws,
+                               DetectorOptions opts) {
+        return Detect(mode, grayscale, ws, opts, (EdgeOutputs) null);
+    }
 
-        int[][] G_x_y = magnitude(G_x, G_y);
+    /**
+     * With out set, Canny also collects its edge pixels there. out is filled
+     * by this call, so unlike opts it must not be shared with another thread.
+     */
+    public static Plane Detect(CameraMode mode, Plane grayscale, Workspace ws,
+                               DetectorOptions opts, EdgeOutputs out) {
+        if (grayscale.isEmpty()) {
+            return null;
+        }
+        return detect(mode, stagesFor(grayscale, ws), opts, out);
+    }
 
-        // convert output to bitmap
-        Bitmap bm = ToBitmap(G_x_y);
-        return bm;
+    /**
+     * Runs the detector straight off a camera NV21 (YUV420SP) frame: the
+     * first stage reads the Y plane bytes in place, so no gray copy of the
+     * frame is ever made. ws must match width x height.
+     */
+    public static Plane Detect(CameraMode mode, byte[] nv21, int width, int height,
+                               Workspace ws, DetectorOptions opts) {
+        return Detect(mode, nv21, width, height, null, ws, opts, (EdgeOutputs) null);
     }
 
-    public static Bitmap GetCannyImage(
-            int[][] grayscale
-    ) {
+    public static Plane Detect(CameraMode mode, byte[] nv21, int width, int height,
+                               Workspace ws, DetectorOptions opts, EdgeOutputs out) {
+        return Detect(mode, nv21, width, height, null, ws, opts, out);
+    }
 
-        // preprocess grayscale to convert from bits
-        grayscale = ToGrayValue(grayscale);
+    /**
+     * Runs the detector on part of an NV21 frame, optionally downscaled (see
+     * Region). ws must match region's output size; pixel (r, c) of the result
+     * sits at (region.toFrameY(r), region.toFrameX(c)) in the frame. A null
+     * region means the whole frame at full size.
+     */
+    public static Plane Detect(CameraMode mode, byte[] nv21, int width, int height,
+                               Region region, Workspace ws, DetectorOptions opts) {
+        return Detect(mode, nv21, width, height, region, ws, opts, (EdgeOutputs) null);
+    }
 
-        // apply gaussian filter
-        int[][] filtered = ApplyKernel(grayscale, GAUSSIAN);
+    public static Plane Detect(CameraMode mode, byte[] nv21, int width, int height,
+                               Region region, Workspace ws, DetectorOptions opts, EdgeOutputs out) {
+        if (nv21.length < width * height) {
+            throw new IllegalArgumentException("frame of " + nv21.length
+                    + " bytes is too short for " + width + "x" + height);
+        }
+        checkRegion(region, width, height, ws);
+        if (ws.width == 0 || ws.height == 0) {
+            return null;
+        }
+        return detect(mode, ws.stages().from(nv21, width, region), opts, out);
+    }
 
-        // apply sobel kernel
-        int[][] kernel_x = SobelKernel(SobelOp.X_3x3);
-        int[][] sobel_x = ApplyKernel(filtered, kernel_x);
+    /**
+     * Runs the detector on a Y plane of width*height bytes (stride = width)
+     * held in a ByteBuffer, e.g. a FrameStream.Reader.luma() view of a mapped
+     * capture. The buffer is read with absolute gets from index 0 and its
+     * position is left alone.
+     */
+    public static Plane Detect(CameraMode mode, ByteBuffer luma, int width, int height,
+                               Workspace ws, DetectorOptions opts) {
+        return Detect(mode, luma, width, height, ws, opts, null);
+    }
 
-        int[][] kernel_y = SobelKernel(SobelOp.Y_3x3);
-        int[][] sobel_y = ApplyKernel(filtered, kernel_y);
+    public static Plane Detect(CameraMode mode, ByteBuffer luma, int width, int height,
+                               Workspace ws, DetectorOptions opts, EdgeOutputs out) {
+        if (luma.limit() < width * height) {
+            throw new IllegalArgumentException("buffer of " + luma.limit()
+                    + " bytes is too short for " + width + "x" + height);
+        }
+        checkRegion(null, width, height, ws);
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        return detect(mode, ws.stages().from(luma), opts, out);
+    }
 
-        int[][] img = magnitude(sobel_x, sobel_y);
-        int[][] gradient_dir = getGradientDirection(sobel_x, sobel_y);
+    public static Plane Detect(CameraMode mode, Plane grayscale, Region region,
+                               Workspace ws, DetectorOptions opts) {
+        return Detect(mode, grayscale, region, ws, opts, null);
+    }
 
-        // non-max suppresion
-        img = suppressNonMaximum(img, gradient_dir);
+    public static Plane Detect(CameraMode mode, Plane grayscale, Region region,
+                               Workspace ws, DetectorOptions opts, EdgeOutputs out) {
+        checkRegion(region, grayscale.width, grayscale.height, ws);
+        if (ws.width == 0 || ws.height == 0) {
+            return null;
+        }
+        return detect(mode, ws.stages().from(grayscale, region), opts, out);
+    }
 
-        // filter small values
-        img = filterSmallValues(img);
+    static void checkRegion(Region region, int width, int height, Workspace ws) {
+        int outWidth = width, outHeight = height;
+        if (region != null) {
+            if (!region.fits(width, height)) {
+                throw new IllegalArgumentException("region " + region.width + "x" + region.height
+                        + " at " + region.left + "," + region.top
+                        + " lies outside the " + width + "x" + height + " frame");
+            }
+            outWidth = region.outputWidth();
+            outHeight = region.outputHeight();
+        }
+        if (!ws.fits(outWidth, outHeight)) {
+            throw new IllegalArgumentException("workspace is " + ws.width + "x" + ws.height
+                    + ", detector output is " + outWidth + "x" + outHeight);
+        }
+    }
 
-        // convert output to bitmap
-        Bitmap bm = ToBitmap(img);
-        return bm;
+    public static void Detect(CameraMode mode, byte[] nv21, int width, int height,
+                              Workspace ws, DetectorOptions opts, int[] argb) {
+        Detect(mode, nv21, width, height, null, ws, opts, argb);
     }
 
+    public static void Detect(CameraMode mode, byte[] nv21, int width, int height,
+                              Region region, Workspace ws, DetectorOptions opts, int[] argb) {
+        Plane result = Detect(mode, nv21, width, height, region, ws, opts);
+        if (result != null) {
+            Pack(result, argb, opts);
+        }
+    }
 }
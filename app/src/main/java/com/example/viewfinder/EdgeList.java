@@ -0,0 +1,107 @@
+package com.example.viewfinder;
+
+import java.util.Arrays;
+
+/**
+ * Canny's edge pixels as a list rather than a frame: one packed position
+ * (row * width + column) per pixel, in raster order, and with values set
+ * the magnitude and Gradient direction code of each. Canny keeps well
+ * under a tenth of the pixels, so anything that walks this list (an
+ * overlay, storage, line fitting) costs time per edge instead of per pixel.
+ *
+ * Pass one in an EdgeOutputs and the hysteresis pass appends to it
+ * as it writes its output; the arrays only grow, so a list reused frame
+ * after frame stops allocating. Not thread safe.
+ */
+public class EdgeList {
+    public final boolean values;
+    private int width, height;
+    private int size;
+    private int[] positions = new int[1024];
+    private int[] magnitudes;
+    private byte[] directions;
+
+    public EdgeList() {
+        this(false);
+    }
+
+    public EdgeList(boolean values) {
+        this.values = values;
+        if (values) {
+            magnitudes = new int[positions.length];
+            directions = new byte[positions.length];
+        }
+    }
+
+    // Size of the frame the edges were found in
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int position(int i) {
+        return positions[i];
+    }
+
+    public int row(int i) {
+        return positions[i] / width;
+    }
+
+    public int column(int i) {
+        return positions[i] % width;
+    }
+
+    public int magnitude(int i) {
+        checkValues();
+        return magnitudes[i];
+    }
+
+    public int direction(int i) {
+        checkValues();
+        return directions[i];
+    }
+
+    // Sets each edge pixel of a width x height ARGB frame to color; nothing else is touched
+    public void paint(int[] argb, int color) {
+        for (int i=0; i<size; i++) {
+            argb[positions[i]] = color;
+        }
+    }
+
+    private void checkValues() {
+        if (!values) {
+            throw new IllegalStateException("list was made without values");
+        }
+    }
+
+    // Empties the list for a new frame
+    void start(int width, int height) {
+        this.width = width;
+        this.height = height;
+        size = 0;
+    }
+
+    void add(int position, int magnitude, byte direction) {
+        if (size == positions.length) {
+            int grown = 2 * size;
+            positions = Arrays.copyOf(positions, grown);
+            if (values) {
+                magnitudes = Arrays.copyOf(magnitudes, grown);
+                directions = Arrays.copyOf(directions, grown);
+            }
+        }
+        positions[size] = position;
+        if (values) {
+            magnitudes[size] = magnitude;
+            directions[size] = direction;
+        }
+        size++;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.viewfinder;
+
+import java.util.Arrays;
+
+/**
+ * A binary edge map packed 64 pixels to a long, a 32nd of an int plane.
+ *
+ * Row r takes words() longs from r * words(); bit c & 63 of word c >> 6
+ * is pixel (r, c), and the bits past width in a row's last word are always
+ * clear. Everything works a word at a time: the set operations, counting
+ * with Long.bitCount, and 3x3 dilate and erode, which shift each row one
+ * bit either way (carrying across words) and combine it with its
+ * neighbour rows. That makes cleanup and frame to frame comparison cost
+ * about width * height / 64 steps.
+ *
+ * Pass one in an EdgeOutputs and Canny's hysteresis pass fills it with the
+ * pixels it keeps. Not thread safe.
+ */
+public class EdgeMask {
+    private int width, height;
+    private int words;          // per row
+    private long[] bits = new long[0];
+
+    public EdgeMask() {
+    }
+
+    public EdgeMask(int width, int height) {
+        start(width, height);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int words() {
+        return words;
+    }
+
+    public long word(int r, int w) {
+        return bits[r * words + w];
+    }
+
+    public boolean get(int r, int c) {
+        checkPixel(r, c);
+        return (bits[r * words + (c >> 6)] & (1L << c)) != 0;
+    }
+
+    public void set(int r, int c) {
+        checkPixel(r, c);
+        mark(r, c);
+    }
+
+    public void clear(int r, int c) {
+        checkPixel(r, c);
+        bits[r * words + (c >> 6)] &= ~(1L << c);
+    }
+
+    // set() without the check, for the detector sweeps that only visit pixels of the frame
+    void mark(int r, int c) {
+        bits[r * words + (c >> 6)] |= 1L << c;
+    }
+
+    public boolean sameSize(EdgeMask other) {
+        return width == other.width && height == other.height;
+    }
+
+    // Set pixels in the whole mask
+    public int count() {
+        int n = 0;
+        int total = words * height;
+        for (int i=0; i<total; i++) {
+            n += Long.bitCount(bits[i]);
+        }
+        return n;
+    }
+
+    // Set pixels in rows [top, bottom), columns [left, right)
+    public int count(int top, int left, int bottom, int right) {
+        if (top < 0 || left < 0 || bottom > height || right > width) {
+            throw new IndexOutOfBoundsException("box " + left + "," + top + " - " + right + ","
+                    + bottom + " outside " + width + "x" + height);
+        }
+        if (bottom <= top || right <= left) return 0;
+        int first = left >> 6, last = (right - 1) >> 6;
+        long firstMask = -1L << left;
+        long lastMask = -1L >>> (63 - ((right - 1) & 63));
+        int n = 0;
+        for (int r=top; r<bottom; r++) {
+            int row = r * words;
+            if (first == last) {
+                n += Long.bitCount(bits[row + first] & firstMask & lastMask);
+                continue;
+            }
+            n += Long.bitCount(bits[row + first] & firstMask);
+            for (int w=first+1; w<last; w++) {
+                n += Long.bitCount(bits[row + w]);
+            }
+            n += Long.bitCount(bits[row + last] & lastMask);
+        }
+        return n;
+    }
+
+    /**
+     * Edge pixels per tileSize x tileSize tile, tiles in raster order, into
+     * counts (at least tilesX * tilesY long); the last row and column of
+     * tiles are clipped to the frame.
+     */
+    public void tileCounts(int tileSize, int[] counts) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("bad tile size " + tileSize);
+        }
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        for (int ty=0; ty<tilesY; ty++) {
+            int y0 = ty * tileSize;
+            int y1 = Math.min(height, y0 + tileSize);
+            for (int tx=0; tx<tilesX; tx++) {
+                int x0 = tx * tileSize;
+                counts[ty * tilesX + tx] = count(y0, x0, y1, Math.min(width, x0 + tileSize));
+            }
+        }
+    }
+
+    // Pixels of plane at or above threshold, e.g. 1 for a Canny result
+    public EdgeMask from(Plane plane, int threshold) {
+        start(plane.width, plane.height);
+        for (int r=0; r<height; r++) {
+            int in = plane.index(r, 0);
+            int row = r * words;
+            for (int c=0; c<width; c++) {
+                if (plane.data[in + c] >= threshold) {
+                    bits[row + (c >> 6)] |= 1L << c;
+                }
+            }
+        }
+        return this;
+    }
+
+    public EdgeMask copyFrom(EdgeMask src) {
+        start(src.width, src.height);
+        System.arraycopy(src.bits, 0, bits, 0, words * height);
+        return this;
+    }
+
+    public EdgeMask and(EdgeMask other) {
+        checkSize(other);
+        for (int i=0; i<words*height; i++) bits[i] &= other.bits[i];
+        return this;
+    }
+
+    public EdgeMask or(EdgeMask other) {
+        checkSize(other);
+        for (int i=0; i<words*height; i++) bits[i] |= other.bits[i];
+        return this;
+    }
+
+    public EdgeMask xor(EdgeMask other) {
+        checkSize(other);
+        for (int i=0; i<words*height; i++) bits[i] ^= other.bits[i];
+        return this;
+    }
+
+    public EdgeMask andNot(EdgeMask other) {
+        checkSize(other);
+        for (int i=0; i<words*height; i++) bits[i] &= ~other.bits[i];
+        return this;
+    }
+
+    // Pixels set in exactly one of the two masks, without building their xor
+    public int differences(EdgeMask other) {
+        checkSize(other);
+        int n = 0;
+        for (int i=0; i<words*height; i++) {
+            n += Long.bitCount(bits[i] ^ other.bits[i]);
+        }
+        return n;
+    }
+
+    /**
+     * Sets dst to this mask grown by one pixel in all eight directions.
+     * Pixels outside the frame count as clear.
+     */
+    public EdgeMask dilate(EdgeMask dst) {
+        return morph(dst, true);
+    }
+
+    /**
+     * Sets dst to the pixels whose whole 3x3 neighbourhood is set here.
+     * Pixels outside the frame count as set, so the border alone doesn't
+     * wear a mask away.
+     */
+    public EdgeMask erode(EdgeMask dst) {
+        return morph(dst, false);
+    }
+
+    // Sets the ARGB pixel (stride = width) of each set bit to color; nothing else is touched
+    public void paint(int[] argb, int color) {
+        for (int r=0; r<height; r++) {
+            int row = r * words;
+            for (int w=0; w<words; w++) {
+                long word = bits[row + w];
+                while (word != 0) {
+                    argb[r * width + (w << 6) + Long.numberOfTrailingZeros(word)] = color;
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    // Resizes if needed and clears every pixel
+    void start(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("bad size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        words = (width + 63) >> 6;
+        if (bits.length < words * height) {
+            bits = new long[words * height];
+        } else {
+            Arrays.fill(bits, 0, words * height, 0);
+        }
+    }
+
+    // Without this a column past the width would land in the next word or row
+    private void checkPixel(int r, int c) {
+        if (r < 0 || c < 0 || r >= height || c >= width) {
+            throw new IndexOutOfBoundsException("pixel " + c + "," + r + " outside "
+                    + width + "x" + height);
+        }
+    }
+
+    private void checkSize(EdgeMask other) {
+        if (!sameSize(other)) {
+            throw new IllegalArgumentException("masks are " + width + "x" + height
+                    + " and " + other.width + "x" + other.height);
+        }
+    }
+
+    // The bits of a row's last word that lie inside the frame
+    private long tailMask() {
+        int used = width & 63;
+        return used == 0 ? -1L : (1L << used) - 1;
+    }
+
+    private EdgeMask morph(EdgeMask dst, boolean dilate) {
+        if (dst == this) {
+            throw new IllegalArgumentException("dilate and erode can't work in place");
+        }
+        dst.start(width, height);
+        if (words == 0) return dst;
+        long outside = dilate ? 0 : -1L;
+        long tail = tailMask();
+        for (int r=0; r<height; r++) {
+            int out = r * words;
+            int up = r > 0 ? (r - 1) * words : -1;
+            int down = r < height - 1 ? (r + 1) * words : -1;
+            for (int w=0; w<words; w++) {
+                long v = spread(r * words, w, dilate, tail);
+                long a = up >= 0 ? spread(up, w, dilate, tail) : outside;
+                long b = down >= 0 ? spread(down, w, dilate, tail) : outside;
+                v = dilate ? v | a | b : v & a & b;
+                dst.bits[out + w] = w == words - 1 ? v & tail : v;
+            }
+        }
+        return dst;
+    }
+
+    // A row word combined with its left and right neighbour pixels (OR to dilate, AND to erode)
+    private long spread(int row, int w, boolean dilate, long tail) {
+        long outside = dilate ? 0 : -1L;
+        long v = bits[row + w];
+        if (!dilate && w == words - 1) {
+            v |= ~tail;         // past the right edge counts as set too
+        }
+        long prev = w > 0 ? bits[row + w - 1] : outside;
+        long next = w < words - 1 ? bits[row + w + 1] : outside;
+        long left = (v << 1) | (prev >>> 63);     // pixel c - 1 moved to bit c
+        long right = (v >>> 1) | (next << 63);    // pixel c + 1 moved to bit c
+        return dilate ? v | left | right : v & left & right;
+    }
+}
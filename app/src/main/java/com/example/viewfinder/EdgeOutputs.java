@@ -0,0 +1,28 @@
+package com.example.viewfinder;
+
+/**
+ * Where a Canny call also collects the edge pixels it keeps, as its last
+ * pass finds them; null fields are skipped. These are filled per frame, so
+ * unlike DetectorOptions, which may be shared between threads and calls, an
+ * instance belongs to one caller (or worker) at a time.
+ */
+public class EdgeOutputs {
+    public EdgeList list = null;
+    public EdgeRuns runs = null;
+    public EdgeMask mask = null;
+
+    public EdgeOutputs list(EdgeList list) {
+        this.list = list;
+        return this;
+    }
+
+    public EdgeOutputs runs(EdgeRuns runs) {
+        this.runs = runs;
+        return this;
+    }
+
+    public EdgeOutputs mask(EdgeMask mask) {
+        this.mask = mask;
+        return this;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.viewfinder;
+
+import java.util.Arrays;
+
+/**
+ * Canny's edge pixels run-length encoded by row: each run is a start
+ * column and a length, and the runs of row r are [firstRun(r), endRun(r)).
+ * Edges come in short chains along rows about as often as across them, so
+ * this is usually smaller than EdgeList and suits storage and mask
+ * rendering, where a run is filled with one Arrays.fill.
+ *
+ * Pass one in an EdgeOutputs and the hysteresis pass fills it as
+ * it writes its output; it allocates nothing once it has grown to fit.
+ * Not thread safe.
+ */
+public class EdgeRuns {
+    private int width, height;
+    private int runs;
+    private int pixels;
+    private int rows;                   // rows finished so far
+    private int[] rowStarts = new int[1];
+    private int[] starts = new int[512];
+    private int[] lengths = new int[512];
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int runs() {
+        return runs;
+    }
+
+    // Edge pixels in all runs
+    public int pixels() {
+        return pixels;
+    }
+
+    public int firstRun(int row) {
+        return rowStarts[row];
+    }
+
+    public int endRun(int row) {
+        return rowStarts[row + 1];
+    }
+
+    public int start(int run) {
+        return starts[run];
+    }
+
+    public int length(int run) {
+        return lengths[run];
+    }
+
+    // Fills each run of a width x height ARGB frame with color; nothing else is touched
+    public void paint(int[] argb, int color) {
+        for (int r=0; r<rows; r++) {
+            int row = r * width;
+            for (int i=rowStarts[r]; i<rowStarts[r + 1]; i++) {
+                Arrays.fill(argb, row + starts[i], row + starts[i] + lengths[i], color);
+            }
+        }
+    }
+
+    // Empties the runs for a new frame
+    void start(int width, int height) {
+        this.width = width;
+        this.height = height;
+        runs = 0;
+        pixels = 0;
+        rows = 0;
+        if (rowStarts.length < height + 1) {
+            rowStarts = new int[height + 1];
+        }
+        rowStarts[0] = 0;
+    }
+
+    // Appends a run to the current row
+    void add(int start, int length) {
+        if (runs == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * runs);
+            lengths = Arrays.copyOf(lengths, 2 * runs);
+        }
+        starts[runs] = start;
+        lengths[runs] = length;
+        runs++;
+        pixels += length;
+    }
+
+    void endRow() {
+        rowStarts[++rows] = runs;
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.viewfinder;
+
+import java.util.Arrays;
+
+/**
+ * Runs edge detection on its own thread so the UI thread only has to draw.
+ *
+ * The camera side calls submit() with each preview frame, either copying it
+ * or (with a BufferOwner) handing over the buffer itself, which goes back to
+ * its owner as soon as the frame is processed or dropped. At most one frame
+ * waits for the worker; what happens to a frame that arrives while another
+ * is still waiting is decided by the DropPolicy. Finished frames go into a
+ * triple buffer: the worker always has a result to write into, and the UI
+ * picks up the most recent complete one with acquireLatest(). Nothing is
+ * allocated per frame once the buffers for a frame size exist. A frame that
+ * throws is counted as failed and reported to the Listener; its buffer still
+ * goes back and the worker keeps going.
+ */
+public class FrameProcessor {
+    public enum DropPolicy {
+        LATEST_WINS,    // a newer frame replaces the one still waiting
+        KEEP_OLDEST     // frames arriving while one is waiting are dropped
+    }
+
+    public interface Listener {
+        // Called on the worker thread after a new result has been published
+        void onFrameProcessed(FrameProcessor processor);
+
+        // Called on the worker thread when a frame could not be processed, e.g.
+        // because its data is too short for its size; the worker carries on
+        void onFrameFailed(FrameProcessor processor, RuntimeException e);
+    }
+
+    public interface BufferOwner {
+        // The processor is done with buffer; may be called on any thread
+        void release(byte[] buffer);
+    }
+
+    public static class Result {
+        public int width;
+        public int height;
+        public Region region;       // where argb sits in the frame
+        public CameraMode mode;
+        public long sequence;       // which submitted frame this came from
+        public long elapsedNanos;   // time spent detecting
+        public int[] argb;          // stride == width
+
+        // Returns the bytes it had to allocate
+        long ensureSize(int width, int height) {
+            long allocated = 0;
+            if (argb == null || argb.length != width * height) {
+                argb = new int[width * height];
+                allocated = 4L * width * height;
+            }
+            this.width = width;
+            this.height = height;
+            return allocated;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final DetectorOptions opts;
+    private final DropPolicy policy;
+    private final Listener listener;
+    private volatile Region region;
+    private volatile TemporalDetector temporal;
+    private Thread worker;
+    private boolean running;
+
+    // input slot, guarded by lock; a null owner means one of our own copy buffers
+    private byte[] pending;
+    private BufferOwner pendingOwner;
+    private byte[] working;
+    private BufferOwner workingOwner;
+    private byte[] copyA, copyB;
+    private boolean hasPending;
+    private int pendingWidth, pendingHeight;
+    private CameraMode pendingMode;
+    private long pendingSequence;
+
+    // output triple buffer, guarded by lock; back belongs to the worker, front to the reader
+    private Result back = new Result();
+    private Result ready = new Result();
+    private Result front = new Result();
+    private boolean hasReady;
+
+    private long submitted, dropped, processed, failed;
+
+    // worker thread only
+    private Workspace workspace;
+    private Region fullFrame;
+
+    public FrameProcessor(DetectorOptions opts, DropPolicy policy, Listener listener) {
+        this.opts = opts;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) return;
+            running = true;
+            worker = new Thread(new Runnable() {
+                public void run() {
+                    workerLoop();
+                }
+            }, "FrameProcessor");
+            worker.start();
+        }
+    }
+
+    public void stop() {
+        Thread t;
+        byte[] abandoned;
+        BufferOwner abandonedOwner;
+        synchronized (lock) {
+            running = false;
+            abandoned = hasPending ? pending : null;
+            abandonedOwner = pendingOwner;
+            hasPending = false;
+            pending = null;
+            pendingOwner = null;
+            t = worker;
+            worker = null;
+            lock.notifyAll();
+        }
+        giveBack(abandoned, abandonedOwner);
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Restricts detection to region of each frame, at its pyramid level. null,
+     * or a region that does not fit the frame, means the whole frame at full
+     * size. Takes effect from the next frame the worker picks up.
+     */
+    public void setRegion(Region region) {
+        this.region = region;
+    }
+
+    /**
+     * With a TemporalDetector, only the tiles that changed since the previous
+     * frame are recomputed; null runs every frame in full. The detector is
+     * used from the worker thread only, so don't share it.
+     */
+    public void setTemporal(TemporalDetector temporal) {
+        this.temporal = temporal;
+    }
+
+    /**
+     * Queues a YUV420SP frame for processing; the data is copied. Returns false
+     * if the frame was dropped straight away.
+     */
+    public boolean submit(byte[] yuv, int width, int height, CameraMode mode) {
+        return submit(yuv, width, height, mode, null);
+    }
+
+    /**
+     * Queues a frame without copying it when owner is non-null: the processor
+     * keeps yuv until it has been processed or superseded and then passes it
+     * to owner.release(). Dropped frames are released before returning false.
+     */
+    public boolean submit(byte[] yuv, int width, int height, CameraMode mode, BufferOwner owner) {
+        byte[] superseded = null;
+        BufferOwner supersededOwner = null;
+        boolean accepted;
+        synchronized (lock) {
+            submitted++;
+            accepted = running && !(hasPending && policy == DropPolicy.KEEP_OLDEST);
+            if (!accepted) {
+                dropped++;
+                if (opts.metrics != null) opts.metrics.frameDropped();
+                superseded = yuv;
+                supersededOwner = owner;
+            } else {
+                if (hasPending) {
+                    dropped++;      // LATEST_WINS: the waiting frame is superseded
+                    if (opts.metrics != null) opts.metrics.frameDropped();
+                    superseded = pending;
+                    supersededOwner = pendingOwner;
+                }
+                if (owner != null) {
+                    pending = yuv;
+                } else {
+                    pending = copyBuffer(yuv.length);
+                    System.arraycopy(yuv, 0, pending, 0, yuv.length);
+                }
+                pendingOwner = owner;
+                pendingWidth = width;
+                pendingHeight = height;
+                pendingMode = mode;
+                pendingSequence = submitted;
+                hasPending = true;
+                lock.notifyAll();
+            }
+        }
+        giveBack(superseded, supersededOwner);
+        return accepted;
+    }
+
+    // One of our two copy buffers that the worker is not reading from
+    private byte[] copyBuffer(int size) {
+        if (copyA == working) {
+            byte[] t = copyA;
+            copyA = copyB;
+            copyB = t;
+        }
+        if (copyA == null || copyA.length != size) {
+            copyA = new byte[size];
+        }
+        return copyA;
+    }
+
+    private static void giveBack(byte[] buffer, BufferOwner owner) {
+        if (buffer != null && owner != null) {
+            owner.release(buffer);
+        }
+    }
+
+    /**
+     * Most recent finished frame, or null if none has finished yet. The
+     * returned result stays untouched until the next call; call it from one
+     * thread only.
+     */
+    public Result acquireLatest() {
+        synchronized (lock) {
+            if (hasReady) {
+                Result t = front;
+                front = ready;
+                ready = t;
+                hasReady = false;
+            }
+            return front.argb == null ? null : front;
+        }
+    }
+
+    public long submittedFrames() {
+        synchronized (lock) {
+            return submitted;
+        }
+    }
+
+    public long droppedFrames() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    public long processedFrames() {
+        synchronized (lock) {
+            return processed;
+        }
+    }
+
+    public long failedFrames() {
+        synchronized (lock) {
+            return failed;
+        }
+    }
+
+    private void workerLoop() {
+        while (true) {
+            int width, height;
+            CameraMode mode;
+            long sequence;
+            byte[] yuv;
+            Result out;
+            synchronized (lock) {
+                while (running && !hasPending) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) return;
+                working = pending;
+                workingOwner = pendingOwner;
+                pending = null;
+                pendingOwner = null;
+                hasPending = false;
+                yuv = working;
+                width = pendingWidth;
+                height = pendingHeight;
+                mode = pendingMode;
+                sequence = pendingSequence;
+                out = back;
+            }
+
+            RuntimeException failure = null;
+            boolean done = false;
+            try {
+                long start = System.nanoTime();
+                Region r = region;
+                if (r == null || !r.fits(width, height)) {
+                    r = fullFrame(width, height);
+                }
+                long allocated = out.ensureSize(r.outputWidth(), r.outputHeight());
+                out.region = r;
+                Workspace before = workspace;
+                long wsBytes = before == null ? 0 : before.allocatedBytes();
+                process(yuv, width, height, r, mode, out.argb);
+                if (workspace != null) {
+                    allocated += workspace.allocatedBytes() - (workspace == before ? wsBytes : 0);
+                }
+                out.mode = mode;
+                out.sequence = sequence;
+                out.elapsedNanos = System.nanoTime() - start;
+                if (opts.metrics != null) {
+                    opts.metrics.frameDone(out.elapsedNanos, allocated);
+                }
+                done = true;
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                // a half-written back buffer is simply written again by the next frame
+                BufferOwner owner;
+                synchronized (lock) {
+                    if (done) {
+                        back = ready;
+                        ready = out;
+                        hasReady = true;
+                        processed++;
+                    } else {
+                        failed++;
+                    }
+                    working = null;
+                    owner = workingOwner;
+                    workingOwner = null;
+                }
+                giveBack(yuv, owner);
+            }
+            if (listener != null) {
+                if (failure != null) {
+                    listener.onFrameFailed(this, failure);
+                } else {
+                    listener.onFrameProcessed(this);
+                }
+            }
+        }
+    }
+
+    private Region fullFrame(int width, int height) {
+        if (fullFrame == null || fullFrame.width != width || fullFrame.height != height) {
+            fullFrame = Region.full(width, height, 1);
+        }
+        return fullFrame;
+    }
+
+    private void process(byte[] yuv, int width, int height, Region r, CameraMode mode, int[] argb) {
+        if (mode == CameraMode.DEFAULT) {
+            Arrays.fill(argb, 0);
+            return;
+        }
+        workspace = Workspace.reuse(workspace, r.outputWidth(), r.outputHeight());
+        TemporalDetector t = temporal;
+        if (t != null) {
+            Plane result = t.detect(mode, yuv, width, height, r, workspace, opts);
+            if (result != null) {
+                EdgeDetector.Pack(result, argb, opts);
+            }
+            return;
+        }
+        EdgeDetector.Detect(mode, yuv, width, height, r, workspace, opts, argb);
+    }
+}
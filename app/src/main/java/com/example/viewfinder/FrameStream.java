@@ -0,0 +1,199 @@
+package com.example.viewfinder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of fixed-size frames behind a small header, for replaying captures
+ * through the detectors and storing their edge maps.
+ *
+ * Layout (big-endian): the magic "EDGS", version, format, width, height,
+ * then zero padding up to HEADER_SIZE, then frame records of recordSize()
+ * bytes each, back to back. The frame count follows from the file length.
+ *
+ * The Reader memory-maps the file and hands out each frame's Y plane as a
+ * ByteBuffer view of the mapping, which EdgeDetector.Detect reads in place,
+ * so frame data never passes through the Java heap.
+ */
+public class FrameStream {
+    public static final int NV21 = 0;     // YUV420SP camera frames, w*h*3/2 bytes
+    public static final int Y8 = 1;       // one byte per pixel, e.g. edge maps
+
+    static final int MAGIC = 0x45444753;  // "EDGS"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    // Frames per mapping; keeps each MappedByteBuffer well under 2 GB
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    public static int recordSize(int format, int width, int height) {
+        switch (format) {
+            case NV21:
+                return width * height * 3 / 2;
+            case Y8:
+                return width * height;
+            default:
+                throw new IllegalArgumentException("unknown frame format " + format);
+        }
+    }
+
+    public static class Reader implements Closeable {
+        public final int format;
+        public final int width;
+        public final int height;
+        private final int recordSize;
+        private final int frames;
+        private final int framesPerSegment;
+        private final RandomAccessFile file;
+        private final MappedByteBuffer[] segments;
+
+        public Reader(File f) throws IOException {
+            file = new RandomAccessFile(f, "r");
+            try {
+                FileChannel ch = file.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && ch.read(header) >= 0) {
+                    // keep reading
+                }
+                header.flip();
+                if (header.remaining() < 20 || header.getInt() != MAGIC) {
+                    throw new IOException(f + " is not a frame stream");
+                }
+                int version = header.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported frame stream version " + version);
+                }
+                format = header.getInt();
+                width = header.getInt();
+                height = header.getInt();
+                if (width <= 0 || height <= 0 || (format != NV21 && format != Y8)) {
+                    throw new IOException("bad frame stream header: format " + format
+                            + ", " + width + "x" + height);
+                }
+                recordSize = recordSize(format, width, height);
+                long count = (ch.size() - HEADER_SIZE) / recordSize;   // a torn last record is ignored
+                frames = (int) Math.min(count, Integer.MAX_VALUE);
+
+                framesPerSegment = (int) Math.max(1, SEGMENT_BYTES / recordSize);
+                segments = new MappedByteBuffer[(frames + framesPerSegment - 1) / framesPerSegment];
+                for (int i=0; i<segments.length; i++) {
+                    long first = (long) i * framesPerSegment;
+                    long n = Math.min(framesPerSegment, frames - first);
+                    segments[i] = ch.map(FileChannel.MapMode.READ_ONLY,
+                            HEADER_SIZE + first * recordSize, n * recordSize);
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        public int frames() {
+            return frames;
+        }
+
+        /**
+         * Y plane of frame i (width*height bytes, row stride = width) as a
+         * read-only view of the mapping. Valid until close().
+         */
+        public ByteBuffer luma(int i) {
+            return record(i, width * height);
+        }
+
+        // The whole record, for NV21 including the interleaved chroma
+        public ByteBuffer frame(int i) {
+            return record(i, recordSize);
+        }
+
+        private ByteBuffer record(int i, int length) {
+            if (i < 0 || i >= frames) {
+                throw new IndexOutOfBoundsException("frame " + i + " of " + frames);
+            }
+            ByteBuffer view = segments[i / framesPerSegment].duplicate();
+            int start = (i % framesPerSegment) * recordSize;
+            view.position(start);
+            view.limit(start + length);
+            return view.slice();
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    public static class Writer implements Closeable {
+        public final int format;
+        public final int width;
+        public final int height;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ByteBuffer record;
+        private int frames;
+
+        public Writer(File f, int format, int width, int height) throws IOException {
+            int size = recordSize(format, width, height);
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            file = new RandomAccessFile(f, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(width).putInt(height);
+            header.clear();
+            writeFully(header);
+            record = ByteBuffer.allocateDirect(size);
+        }
+
+        public int frames() {
+            return frames;
+        }
+
+        // Appends one raw record of recordSize() bytes
+        public void write(byte[] frame) throws IOException {
+            record.clear();
+            record.put(frame, 0, record.capacity());
+            record.flip();
+            writeFully(record);
+            frames++;
+        }
+
+        /**
+         * Appends a detector result as a Y8 record, clamping values above
+         * 255 the same way EdgeDetector.ToArgb does.
+         */
+        public void write(Plane edges) throws IOException {
+            if (format != Y8 || edges.width != width || edges.height != height) {
+                throw new IllegalArgumentException("stream holds " + width + "x" + height
+                        + " format " + format + " frames, got a " + edges.width + "x"
+                        + edges.height + " plane");
+            }
+            record.clear();
+            for (int r=0; r<height; r++) {
+                int in = edges.index(r, 0);
+                for (int c=0; c<width; c++) {
+                    int v = edges.data[in + c];
+                    record.put((byte) (v > 0xFF ? 0xFF : v));
+                }
+            }
+            record.flip();
+            writeFully(record);
+            frames++;
+        }
+
+        private void writeFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.viewfinder;
+
+/**
+ * Fixed-point separable Gaussian blur.
+ *
+ * The 1D taps are integers summing to exactly 1 << SHIFT, so the two passes
+ * together scale by 1 << (2 * SHIFT) and the result is recovered with a
+ * rounding shift instead of a divide. With 8 bit input the intermediate sums
+ * stay well inside an int for any kernel size.
+ */
+public class GaussianBlur extends SeparableBlur {
+    static final int SHIFT = 8;
+    private static final int ONE = 1 << SHIFT;
+
+    // Closest sampled match to the old 5x5 /159 GAUSSIAN kernel
+    public static final GaussianBlur DEFAULT = new GaussianBlur(1.4, 5);
+
+    final int[] taps;
+
+    public GaussianBlur(double sigma, int size) {
+        super(sigma, size);
+        if (sigma <= 0) {
+            throw new IllegalArgumentException("sigma must be positive, got " + sigma);
+        }
+        this.taps = taps(sigma, size);
+    }
+
+    // Kernel wide enough to hold +-3 sigma
+    public static GaussianBlur forSigma(double sigma) {
+        return new GaussianBlur(sigma, 2 * (int) Math.ceil(3 * sigma) + 1);
+    }
+
+    static int[] taps(double sigma, int size) {
+        int half = size / 2;
+        double[] w = new double[size];
+        double total = 0;
+        for (int i=0; i<size; i++) {
+            int x = i - half;
+            w[i] = Math.exp(-(x * x) / (2 * sigma * sigma));
+            total += w[i];
+        }
+        int[] taps = new int[size];
+        int sum = 0;
+        for (int i=0; i<size; i++) {
+            taps[i] = (int) Math.round(w[i] / total * ONE);
+            sum += taps[i];
+        }
+        // push the rounding error into the centre tap so the weights stay normalised
+        taps[half] += ONE - sum;
+        return taps;
+    }
+
+    @Override
+    public void horizontal(Plane src, Plane tmp, int rowStart, int rowEnd) {
+        Convolution.horizontal(src, taps, tmp, rowStart, rowEnd);
+    }
+
+    @Override
+    public void vertical(Plane tmp, Plane dst, int rowStart, int rowEnd) {
+        // the rounding shift runs on each row while it is still in cache
+        Convolution.vertical(tmp, taps, dst, rowStart, rowEnd, 2 * SHIFT);
+    }
+
+    @Override
+    void verticalRow(int[] in, int[] rows, int[] out, int outPos, int count) {
+        RowKernels.ACTIVE.combineRows(in, rows, taps, out, outPos, count, 2 * SHIFT);
+    }
+}
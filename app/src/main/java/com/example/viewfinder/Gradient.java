@@ -0,0 +1,134 @@
+package com.example.viewfinder;
+
+/**
+ * Fused 3x3 Sobel / Prewitt gradient.
+ *
+ * Each neighbourhood is read once and Gx, Gy and the magnitude come out of
+ * the same sweep. With the neighbourhood
+ *
+ *     a b c
+ *     d . f
+ *     g h i
+ *
+ * and centre weight w (2 for Sobel, 1 for Prewitt) this computes
+ * Gx = (a + w*d + g) - (c + w*f + i) and Gy = (a + w*b + c) - (g + w*h + i),
+ * i.e. the X_3x3 / Y_3x3 kernels. Gx and Gy keep their sign. Pass null for
+ * any output that is not needed. A non-null hist counts each magnitude in
+ * its bin, the last bin also taking everything larger, and a non-null dir
+ * gets each pixel's direction code (see directionCode), so Canny never has
+ * to store Gx and Gy.
+ *
+ * The magnitude is exact while |Gx| and |Gy| stay below 2^15, which covers
+ * any input up to 12 bits. The SIMD kernels only work in that range and
+ * leave steps outside it to the scalar loop, so results never depend on
+ * the backend.
+ */
+public class Gradient {
+    public static final int SOBEL = 2;
+    public static final int PREWITT = 1;
+
+    // Direction codes: which neighbours lie along the gradient
+    public static final byte VERTICAL = 0;      // above and below
+    public static final byte DIAGONAL_UP = 1;   // below-left and above-right
+    public static final byte HORIZONTAL = 2;    // left and right
+    public static final byte DIAGONAL_DOWN = 3; // above-left and below-right
+
+    // tan(22.5 deg) in 16.16 fixed point; tan(67.5 deg) is its reciprocal
+    private static final long TAN_22_5 = 27146;
+
+    public static void apply(Plane src, int w, Plane gx, Plane gy, Plane mag, boolean l1) {
+        apply(src, w, gx, gy, mag, l1, 0, src.height);
+    }
+
+    public static void apply(Plane src, int w, Plane gx, Plane gy, Plane mag, boolean l1,
+                             int rowStart, int rowEnd) {
+        apply(src, w, gx, gy, mag, l1, null, rowStart, rowEnd);
+    }
+
+    public static void apply(Plane src, int w, Plane gx, Plane gy, Plane mag, boolean l1,
+                             int[] hist, int rowStart, int rowEnd) {
+        apply(src, w, gx, gy, mag, null, l1, hist, rowStart, rowEnd);
+    }
+
+    public static void apply(Plane src, int w, Plane gx, Plane gy, Plane mag, byte[] dir,
+                             boolean l1, int[] hist, int rowStart, int rowEnd) {
+        int rows = src.height;
+        int cols = src.width;
+        int[] in = src.data;
+        int stride = src.stride;
+
+        for (int r=rowStart; r<rowEnd; r++) {
+            boolean interiorRow = r > 0 && r < rows - 1;
+            int out = r * cols;
+            if (!interiorRow || cols < 3) {
+                for (int c=0; c<cols; c++) {
+                    border(src, w, gx, gy, mag, dir, l1, hist, r, c);
+                }
+                continue;
+            }
+            border(src, w, gx, gy, mag, dir, l1, hist, r, 0);
+
+            int mid = src.index(r, 1);
+            RowKernels.ACTIVE.gradient(in, mid - stride, mid, mid + stride, w, l1,
+                    gx != null ? gx.data : null, gy != null ? gy.data : null,
+                    mag != null ? mag.data : null, dir, out + 1, cols - 2);
+            if (hist != null && mag != null) {
+                int last = hist.length - 1;
+                for (int i=out+1; i<out+cols-1; i++) {
+                    int m = mag.data[i];
+                    hist[m < last ? m : last]++;
+                }
+            }
+
+            border(src, w, gx, gy, mag, dir, l1, hist, r, cols - 1);
+        }
+    }
+
+    private static void border(Plane src, int w, Plane gx, Plane gy, Plane mag, byte[] dir,
+                               boolean l1, int[] hist, int r, int c) {
+        int a = src.getClamped(r - 1, c - 1), b = src.getClamped(r - 1, c), cc = src.getClamped(r - 1, c + 1);
+        int d = src.getClamped(r, c - 1), f = src.getClamped(r, c + 1);
+        int g = src.getClamped(r + 1, c - 1), h = src.getClamped(r + 1, c), i = src.getClamped(r + 1, c + 1);
+
+        int x = (a + w * d + g) - (cc + w * f + i);
+        int y = (a + w * b + cc) - (g + w * h + i);
+        store(gx, gy, mag, dir, l1, hist, r * src.width + c, x, y);
+    }
+
+    // Outputs are packed (stride == width) workspace planes, so all share index i
+    private static void store(Plane gx, Plane gy, Plane mag, byte[] dir, boolean l1, int[] hist,
+                              int i, int x, int y) {
+        if (gx != null) gx.data[i] = x;
+        if (gy != null) gy.data[i] = y;
+        if (dir != null) dir[i] = directionCode(x, y);
+        if (mag != null) {
+            int m = magnitude(x, y, l1);
+            mag.data[i] = m;
+            if (hist != null) hist[m < hist.length ? m : hist.length - 1]++;
+        }
+    }
+
+    /**
+     * Sector of the gradient (x, y): within 22.5 degrees of horizontal or
+     * vertical, else one of the diagonals. Integer compares only.
+     */
+    public static byte directionCode(int x, int y) {
+        long ax = Math.abs((long) x);
+        long ay = Math.abs((long) y);
+        if ((ay << 16) <= ax * TAN_22_5) {
+            return HORIZONTAL;
+        }
+        if ((ax << 16) <= ay * TAN_22_5) {
+            return VERTICAL;
+        }
+        // x and y are both negated derivatives, so equal signs mean the (1, 1) diagonal
+        return (x ^ y) >= 0 ? DIAGONAL_DOWN : DIAGONAL_UP;
+    }
+
+    public static int magnitude(int x, int y, boolean l1) {
+        if (l1) {
+            return Math.abs(x) + Math.abs(y);
+        }
+        return (int) Math.round(Math.sqrt(x * x + y * y));
+    }
+}
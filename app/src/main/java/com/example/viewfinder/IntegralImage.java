@@ -0,0 +1,117 @@
+package com.example.viewfinder;
+
+/**
+ * Summed-area table of a plane: after one pass over the pixels the sum,
+ * mean and variance of any rectangle cost four table reads each.
+ *
+ * The table is (width + 1) x (height + 1) longs with a zero first row and
+ * column, so entry (r, c) is the sum of the pixels above and left of (r, c).
+ * Sums of squares are only kept when asked for, as variance needs them.
+ * Rectangles are half-open: rows [top, bottom), columns [left, right).
+ * Works on the gray plane as well as on gradient magnitudes; reuse one
+ * instance per frame size, compute() allocates nothing.
+ */
+public class IntegralImage {
+    public final int width;
+    public final int height;
+    private final int stride;
+    private final long[] sums;
+    private final long[] squares;       // null without variance
+
+    public IntegralImage(int width, int height, boolean variance) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("bad size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        sums = new long[stride * (height + 1)];
+        squares = variance ? new long[sums.length] : null;
+    }
+
+    public boolean hasVariance() {
+        return squares != null;
+    }
+
+    // One pass: each entry is the one above plus the running sum of its row
+    public IntegralImage compute(Plane src) {
+        if (src.width != width || src.height != height) {
+            throw new IllegalArgumentException("plane is " + src.width + "x" + src.height
+                    + ", table is " + width + "x" + height);
+        }
+        int[] px = src.data;
+        for (int r=0; r<height; r++) {
+            int in = src.index(r, 0);
+            int out = (r + 1) * stride + 1;
+            long rowSum = 0;
+            for (int c=0; c<width; c++) {
+                rowSum += px[in + c];
+                sums[out + c] = sums[out + c - stride] + rowSum;
+            }
+        }
+        if (squares != null) {
+            for (int r=0; r<height; r++) {
+                int in = src.index(r, 0);
+                int out = (r + 1) * stride + 1;
+                long rowSum = 0;
+                for (int c=0; c<width; c++) {
+                    long v = px[in + c];
+                    rowSum += v * v;
+                    squares[out + c] = squares[out + c - stride] + rowSum;
+                }
+            }
+        }
+        return this;
+    }
+
+    public long sum(int top, int left, int bottom, int right) {
+        return box(sums, top, left, bottom, right);
+    }
+
+    public double mean(int top, int left, int bottom, int right) {
+        int n = (bottom - top) * (right - left);
+        return n > 0 ? (double) sum(top, left, bottom, right) / n : 0;
+    }
+
+    public double variance(int top, int left, int bottom, int right) {
+        if (squares == null) {
+            throw new IllegalStateException("table was built without variance");
+        }
+        int n = (bottom - top) * (right - left);
+        if (n <= 0) return 0;
+        double mean = (double) sum(top, left, bottom, right) / n;
+        double v = (double) box(squares, top, left, bottom, right) / n - mean * mean;
+        return v > 0 ? v : 0;      // rounding can leave a flat box slightly negative
+    }
+
+    // Sum of the (2 * radius + 1)^2 window around (r, c), cut off at the frame edges
+    public long sumAround(int r, int c, int radius) {
+        return sum(Math.max(0, r - radius), Math.max(0, c - radius),
+                Math.min(height, r + radius + 1), Math.min(width, c + radius + 1));
+    }
+
+    public double meanAround(int r, int c, int radius) {
+        return mean(Math.max(0, r - radius), Math.max(0, c - radius),
+                Math.min(height, r + radius + 1), Math.min(width, c + radius + 1));
+    }
+
+    public double varianceAround(int r, int c, int radius) {
+        return variance(Math.max(0, r - radius), Math.max(0, c - radius),
+                Math.min(height, r + radius + 1), Math.min(width, c + radius + 1));
+    }
+
+    // Entry (r, c) of the table, for callers that walk windows themselves
+    long at(int r, int c) {
+        return sums[r * stride + c];
+    }
+
+    private long box(long[] table, int top, int left, int bottom, int right) {
+        if (top < 0 || left < 0 || bottom > height || right > width) {
+            throw new IndexOutOfBoundsException("box " + left + "," + top + " - " + right + ","
+                    + bottom + " outside " + width + "x" + height);
+        }
+        if (bottom <= top || right <= left) return 0;
+        int a = top * stride, b = bottom * stride;
+        return table[b + right] - table[b + left] - table[a + right] + table[a + left];
+    }
+}
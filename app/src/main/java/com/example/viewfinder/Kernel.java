@@ -0,0 +1,112 @@
+package com.example.viewfinder;
+
+/**
+ * An odd-sized integer convolution kernel.
+ *
+ * If the kernel is rank one (every row a multiple of one row vector) it is
+ * also stored as a column and a row factor, so it can be applied as two 1D
+ * passes: k[i][j] == col[i] * row[j].
+ */
+public class Kernel {
+    public final int rows;
+    public final int cols;
+    final int[] weights;    // row-major rows x cols
+    final int[] col;        // null unless separable
+    final int[] row;
+
+    private Kernel(int rows, int cols, int[] weights, int[] col, int[] row) {
+        if (rows % 2 == 0 || cols % 2 == 0) {
+            throw new IllegalArgumentException("kernel must be odd sized, got " + rows + "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.weights = weights;
+        this.col = col;
+        this.row = row;
+    }
+
+    public static Kernel of(int[][] k) {
+        int rows = k.length;
+        int cols = k[0].length;
+        int[] weights = new int[rows * cols];
+        for (int r=0; r<rows; r++) {
+            System.arraycopy(k[r], 0, weights, r * cols, cols);
+        }
+        int[][] factors = factor(k);
+        if (factors == null) {
+            return new Kernel(rows, cols, weights, null, null);
+        }
+        return new Kernel(rows, cols, weights, factors[0], factors[1]);
+    }
+
+    public static Kernel separable(int[] col, int[] row) {
+        int[] weights = new int[col.length * row.length];
+        for (int r=0; r<col.length; r++) {
+            for (int c=0; c<row.length; c++) {
+                weights[r * row.length + c] = col[r] * row[c];
+            }
+        }
+        return new Kernel(col.length, row.length, weights, col.clone(), row.clone());
+    }
+
+    public boolean isSeparable() {
+        return row != null;
+    }
+
+    public int get(int r, int c) {
+        return weights[r * cols + c];
+    }
+
+    // Returns {col, row} with k[i][j] == col[i] * row[j], or null if k is not rank one
+    private static int[][] factor(int[][] k) {
+        int rows = k.length;
+        int cols = k[0].length;
+
+        // the first non-zero row, reduced by its gcd, is the row factor
+        int pivotRow = -1;
+        for (int r=0; r<rows && pivotRow < 0; r++) {
+            for (int c=0; c<cols; c++) {
+                if (k[r][c] != 0) {
+                    pivotRow = r;
+                    break;
+                }
+            }
+        }
+        if (pivotRow < 0) {
+            return null;    // all zero, nothing worth separating
+        }
+        int g = 0;
+        for (int c=0; c<cols; c++) {
+            g = gcd(g, Math.abs(k[pivotRow][c]));
+        }
+        int[] row = new int[cols];
+        int pivotCol = -1;
+        for (int c=0; c<cols; c++) {
+            row[c] = k[pivotRow][c] / g;
+            if (pivotCol < 0 && row[c] != 0) pivotCol = c;
+        }
+
+        int[] col = new int[rows];
+        for (int r=0; r<rows; r++) {
+            if (k[r][pivotCol] % row[pivotCol] != 0) {
+                return null;
+            }
+            col[r] = k[r][pivotCol] / row[pivotCol];
+            for (int c=0; c<cols; c++) {
+                if (col[r] * row[c] != k[r][c]) {
+                    return null;
+                }
+            }
+        }
+        return new int[][]{col, row};
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.viewfinder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond latencies.
+ *
+ * Buckets are log-linear: every power of two is split into 8 equal steps,
+ * so a percentile is off by at most 1/8 of its value, and the whole range
+ * from 1 ns to about 18 minutes fits in a few hundred counters. record()
+ * is a couple of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40;      // 2^40 ns
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXP - SUB_BITS + 2) * SUB);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(long v) {
+        if (v < SUB) return v < 0 ? 0 : (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp > MAX_EXP) return (MAX_EXP - SUB_BITS + 2) * SUB - 1;
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // Smallest value that lands in bucket i
+    static long lowerBound(int i) {
+        if (i < SUB) return i;
+        int exp = i / SUB + SUB_BITS - 1;
+        return (long) (SUB + i % SUB) << (exp - SUB_BITS);
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // retry
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public long mean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * Latency below which fraction p (0..1) of the samples fall, as the
+     * middle of the bucket holding that rank; 0 when nothing was recorded.
+     */
+    public long percentile(double p) {
+        long n = 0;
+        for (int i=0; i<counts.length(); i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(p * n);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i=0; i<counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long lo = lowerBound(i);
+                long hi = i + 1 < counts.length() ? lowerBound(i + 1) : lo;
+                return Math.min(lo + (hi - lo) / 2, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Not atomic with respect to concurrent record() calls; a sample may straddle the reset
+    public void reset() {
+        for (int i=0; i<counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
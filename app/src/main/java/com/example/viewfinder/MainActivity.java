@@ -53,12 +53,15 @@ public class MainActivity extends Activity {
     protected static int mCameraWidth;    // preview width  (determined later)
     protected static Preview mPreview;
     protected static DrawOnTop mDrawOnTop;
+    protected static StripExecutor mStripExecutor;  // spreads edge detection over the cores
     protected static LayoutParams mLayoutParams = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
     private static boolean DBG = BuildConfig.DEBUG; // provide normal log output only in debug version
 
     // for later: optional dump of useful info into the log
     static boolean bDisplayInfoFlag = false;	// show info about display  in log file
     static boolean nCameraInfoFlag = false;	// show info about cameras in log file
+    static boolean bStageMetricsFlag = BuildConfig.DEBUG;	// time detector stages and show them on screen
+    static boolean bTemporalFlag = true;	// only redetect the parts of the frame that changed
 
     @Override
     protected void onCreate (Bundle savedInstanceState) {
@@ -89,7 +92,13 @@ public class MainActivity extends Activity {
     protected void onPause () {
         super.onPause();
         if (DBG) Log.v(TAG, "onPause" + asterisks);
+        // stop the processor first, so no buffer is still on its way back when the camera goes
+        if (mDrawOnTop != null) mDrawOnTop.mProcessor.stop();
         releaseCamera(mCam, true);    // release camera here
+        if (mStripExecutor != null) {
+            mStripExecutor.shutdown();
+            mStripExecutor = null;
+        }
     }
 
     // which means the CameraDevice has to be (re-)opened when the activity is (re-)started
@@ -105,8 +114,11 @@ public class MainActivity extends Activity {
             openCamera(mCam);    // (re-)open camera here
             getPreviewSize(mCamera, nPixels);    // pick an available preview size
 
+            if (mStripExecutor == null) mStripExecutor = new StripExecutor();
             // Create our DrawOnTop view.
             mDrawOnTop = new DrawOnTop(this);
+            mDrawOnTop.mOptions.executor(mStripExecutor);
+            mDrawOnTop.mProcessor.start();
             // Create our Preview view
             mPreview = new Preview(this, mDrawOnTop);
             // and set preview as the content of our activity.
@@ -149,6 +161,8 @@ public class MainActivity extends Activity {
         if (mCamera != null) {
             if (DBG) Log.i(TAG, "Releasing camera " + nCam);
             if (previewFlag) {    // if we have been getting previews from this camera
+                if (mPreview != null && mPreview.mBufferRing != null)
+                    mPreview.mBufferRing.close();    // buffers still out must not go back to a dead camera
                 mCamera.setPreviewCallback(null);
                 mCamera.stopPreview();
             }
@@ -181,9 +195,7 @@ public class MainActivity extends Activity {
 
     class DrawOnTop extends View {
         Bitmap mBitmap;
-        byte[] mYUVData;
         int[] mRGBData;
-        int[] mGrayData;
         int mImageWidth, mImageHeight;
         int[] mRedHistogram;
         int[] mGreenHistogram;
@@ -196,6 +208,13 @@ public class MainActivity extends Activity {
         int mTextsize = 90;        // controls size of text on screen
         int mLeading;              // spacing between text lines
         RectF barRect = new RectF();    // used in drawing histogram
+        RectF mEdgeRect = new RectF();  // where the edge image is drawn
+        Bitmap mEdgeBitmap;             // detector output, reused every frame
+        DetectorOptions mOptions = new DetectorOptions();
+        FrameProcessor mProcessor;      // runs the detector off the UI thread
+        StageMetrics mMetrics;          // per-stage timings, null unless bStageMetricsFlag
+        StageMetrics.Snapshot mSnapshot = new StageMetrics.Snapshot();
+        Paint mPaintMetrics;
         double redMean, greenMean, blueMean;    // computed results
         double redStdDev, greenStdDev, blueStdDev;
         String TAG = "DrawOnTop";       // for logcat output
@@ -209,9 +228,11 @@ public class MainActivity extends Activity {
             mPaintRed = makePaint(Color.RED);
             mPaintGreen = makePaint(Color.GREEN);
             mPaintBlue = makePaint(Color.BLUE);
+            mPaintMetrics = makePaint(Color.YELLOW);
+            mPaintMetrics.setTextSize(mTextsize / 3);
+            mPaintMetrics.setShadowLayer(2, 1, 1, Color.BLACK);    // readable over any frame
 
             mBitmap = null;    // will be set up later in Preview - PreviewCallback
-            mYUVData = null;
             mRGBData = null;
             mRedHistogram = new int[256];
             mGreenHistogram = new int[256];
@@ -221,6 +242,24 @@ public class MainActivity extends Activity {
             mLeading = mTextsize * 6 / 5;    // adjust line spacing
             if (DBG) Log.i(TAG, "DrawOnTop Leading " + mLeading);
 
+            if (bStageMetricsFlag) {
+                mMetrics = new StageMetrics();
+                mOptions.metrics(mMetrics);
+            }
+            // newest frame wins: if detection falls behind, stale frames are skipped
+            mProcessor = new FrameProcessor(mOptions, FrameProcessor.DropPolicy.LATEST_WINS,
+                    new FrameProcessor.Listener() {
+                        public void onFrameProcessed(FrameProcessor processor) {
+                            postInvalidate();
+                        }
+
+                        public void onFrameFailed(FrameProcessor processor, RuntimeException e) {
+                            Log.e("FrameProcessor", "frame failed: " + e);
+                        }
+                    });
+            if (bTemporalFlag) {
+                mProcessor.setTemporal(new TemporalDetector());
+            }
         }
 
         Paint makePaint(int color) {
@@ -237,7 +276,6 @@ public class MainActivity extends Activity {
 
         @Override
         protected void onDraw (Canvas canvas) {
-            long startTime = System.currentTimeMillis();
             String TAG = "onDraw";
             if (mBitmap == null) {    // sanity check
                 Log.w(TAG, "mBitMap is null");
@@ -249,44 +287,41 @@ public class MainActivity extends Activity {
                 return;
             }
 
-            decodeYUV420SPGrayscale(mGrayData, mYUVData, mImageWidth, mImageHeight);
-
-            // Now do some image processing here:
-            int[][] grayscale = new int[mImageHeight][mImageWidth];
-            for (int r=0; r<mImageHeight; r++) {
-                for (int c=0; c<mImageWidth; c++) {
-                    grayscale[r][c] = mGrayData[r * mImageWidth + c];
-                }
+            // The image processing happens on the FrameProcessor thread; just show its latest result
+            FrameProcessor.Result result = mProcessor.acquireLatest();
+            if (result == null || result.mode != mode) {
+                super.onDraw(canvas);
+                return;    // nothing for the current mode yet
+            }
+            if (mEdgeBitmap == null || mEdgeBitmap.getWidth() != result.width
+                    || mEdgeBitmap.getHeight() != result.height) {
+                mEdgeBitmap = Bitmap.createBitmap(result.width, result.height, Bitmap.Config.ARGB_8888);
             }
 
-            Bitmap img = null;
+            Bitmap img = mEdgeBitmap;
+            img.setPixels(result.argb, 0, result.width, 0, 0, result.width, result.height);
             String text = "";
-            if (mode == CameraMode.SOBEL) {
-                img = EdgeDetector.GetSobelImage(grayscale);
+            if (result.mode == CameraMode.SOBEL) {
                 text = "Sobel";
-            } else if (mode == CameraMode.CANNY) {
-                img = EdgeDetector.GetCannyImage(grayscale);
+            } else if (result.mode == CameraMode.CANNY) {
                 text = "Canny";
-            } else if (mode == CameraMode.PREWITT) {
-                img = EdgeDetector.GetPrewittImage(grayscale);
+            } else if (result.mode == CameraMode.PREWITT) {
                 text = "Prewitt";
             }
 
-            Paint paint = new Paint();
-            paint.setAntiAlias(true);
-            paint.setFilterBitmap(true);
-            paint.setDither(true);
-
+            // the result may cover only part of the frame, at a lower resolution
+            Region region = result.region;
             int height_offset = 80;
-            int height = 2*img.getHeight();
-            int width = 2*img.getWidth();
-            int dx = img.getWidth()+30;
+            int height = 2*region.frameBottom();
+            int dx = region.frameRight()+30;
 
-            canvas.drawBitmap(img, null, new RectF(0, 0, width, height), null);
+            mEdgeRect.set(2*region.left, 2*region.top, 2*region.frameRight(), height);
+            canvas.drawBitmap(img, null, mEdgeRect, null);
             drawTextOnBlack(canvas, text, dx, height+height_offset, mPaintRed);
-            long elapsed = System.currentTimeMillis() - startTime;
+            long elapsed = result.elapsedNanos / 1000000;    // detection time of this frame
             String framerate = Long.toString(elapsed)+" ms";
             drawTextOnBlack(canvas, framerate, dx*2, height_offset, mPaintRed);
+            if (mMetrics != null) drawMetrics(canvas, dx*2, height_offset + mLeading);
             super.onDraw(canvas);
 
         } // end onDraw method
@@ -363,6 +398,19 @@ public class MainActivity extends Activity {
             System.out.println("ON TOUCH EVENT TRIGGERED");
         }
 
+        // p50/p95/p99 of each stage over the last second, plus fps and drops
+        private void drawMetrics (Canvas canvas, int x, int y) {
+            mMetrics.snapshot(mSnapshot);
+            int leading = mLeading / 3;
+            canvas.drawText(String.format("%.1f fps  %d dropped  %d KB alloc", mSnapshot.fps(),
+                    mSnapshot.dropped, mSnapshot.allocatedBytes / 1024), x, y, mPaintMetrics);
+            for (int i = 0; i < StageMetrics.STAGES; i++) {
+                if (mSnapshot.count[i] == 0) continue;    // stage not used by this detector
+                y += leading;
+                canvas.drawText(mSnapshot.describe(i), x, y, mPaintMetrics);
+            }
+        }
+
         private void drawTextOnBlack (Canvas canvas, String str, int rPos, int cPos, Paint mPaint) { // make text stand out from background by providing thin black border
             canvas.drawText(str, rPos - 1, cPos - 1, mPaintBlack);
             canvas.drawText(str, rPos + 1, cPos - 1, mPaintBlack);
@@ -379,6 +427,7 @@ public class MainActivity extends Activity {
         SurfaceHolder mHolder;
         DrawOnTop mDrawOnTop;
         boolean mFinished;
+        CallbackBufferRing mBufferRing;    // preview buffers shared by camera and FrameProcessor
         String TAG = "PreView";    // tag for LogCat
 
         public Preview (Context context, DrawOnTop drawOnTop) { // constructor
@@ -418,19 +467,29 @@ public class MainActivity extends Activity {
             mPreviewCallback = new PreviewCallback() {
                 public void onPreviewFrame(byte[] data, Camera camera) { // callback
                     String TAG = "onPreviewFrame";
-                    if ((mDrawOnTop == null) || mFinished) return;
+                    if (!mBufferRing.acquire(data)) return;    // stale buffer from an old ring
+                    if ((mDrawOnTop == null) || mFinished) {
+                        mBufferRing.release(data);    // nothing to draw it on, but the ring needs it back
+                        return;
+                    }
                     if (mDrawOnTop.mBitmap == null)  // need to initialize the drawOnTop companion?
                         setupArrays(data, camera);
-                    // Pass YUV image data to draw-on-top companion
-                    System.arraycopy(data, 0, mDrawOnTop.mYUVData, 0, data.length);
-                    mDrawOnTop.invalidate();
+                    // Hand the buffer itself to the processing thread; it goes back to the camera
+                    // once processed (or dropped), and the overlay is redrawn when done
+                    if (mDrawOnTop.mode == CameraMode.DEFAULT) {
+                        mBufferRing.release(data);
+                        return;
+                    }
+                    mDrawOnTop.mProcessor.submit(data, mDrawOnTop.mImageWidth,
+                            mDrawOnTop.mImageHeight, mDrawOnTop.mode, mBufferRing);
                 }
             };
 
             try {
                 mCamera.setPreviewDisplay(holder);
-                // Preview callback will be used whenever new viewfinder frame is available
-                mCamera.setPreviewCallback(mPreviewCallback);
+                // Preview callback will be used whenever new viewfinder frame is available,
+                // with frames delivered into the buffers we queue in surfaceChanged
+                mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
             } catch (IOException e) {
                 Log.e(TAG, "ERROR: surfaceCreated - IOException " + e);
                 mCamera.release();
@@ -442,6 +501,7 @@ public class MainActivity extends Activity {
             String TAG = "surfaceDestroyed";
             // Surface will be destroyed when we return, so stop the preview.
             mFinished = true;
+            if (mBufferRing != null) mBufferRing.close();
             if (mCamera != null) {    // not expected
                 Log.e(TAG, "ERROR: camera still open");
                 mCamera.setPreviewCallback(null);
@@ -474,6 +534,16 @@ public class MainActivity extends Activity {
                 Log.e(TAG, "ERROR: setParameters exception " + e);
                 System.exit(0);
             }
+            // a few preview buffers: one being filled, one waiting, one being processed, one spare
+            if (mBufferRing != null) mBufferRing.close();
+            mBufferRing = new CallbackBufferRing(4, mCameraWidth * mCameraHeight * 3 / 2,
+                    new CallbackBufferRing.Sink() {
+                        public void queue(byte[] buffer) {
+                            Camera camera = mCamera;
+                            if (camera != null) camera.addCallbackBuffer(buffer);
+                        }
+                    });
+            mBufferRing.start();
             mCamera.startPreview();
         }
 
@@ -487,11 +557,12 @@ public class MainActivity extends Activity {
                 Log.i(TAG, "height " + mDrawOnTop.mImageHeight + " width " + mDrawOnTop.mImageWidth);
             mDrawOnTop.mBitmap = Bitmap.createBitmap(mDrawOnTop.mImageWidth,
                     mDrawOnTop.mImageHeight, Bitmap.Config.RGB_565);
-            mDrawOnTop.mGrayData = new int[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
             mDrawOnTop.mRGBData = new int[mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight];
+            // the overlay is only a preview; half resolution is a quarter of the work
+            mDrawOnTop.mProcessor.setRegion(Region.full(mDrawOnTop.mImageWidth,
+                    mDrawOnTop.mImageHeight, 2));
             if (DBG)
                 Log.i(TAG, "data length " + data.length); // should be width*height*3/2 for YUV format
-            mDrawOnTop.mYUVData = new byte[data.length];
             int dataLengthExpected = mDrawOnTop.mImageWidth * mDrawOnTop.mImageHeight * 3 / 2;
             if (data.length != dataLengthExpected)
                 Log.e(TAG, "ERROR: data length mismatch " + data.length + " vs " + dataLengthExpected);
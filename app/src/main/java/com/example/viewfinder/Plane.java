@@ -0,0 +1,82 @@
+package com.example.viewfinder;
+
+/**
+ * A single channel image stored row-major in one flat int[].
+ *
+ * Pixel (r, c) lives at data[offset + r * stride + c]. The stride lets a
+ * plane be a view onto a wider buffer (e.g. the camera's gray frame) without
+ * copying it.
+ */
+public class Plane {
+    public final int width;
+    public final int height;
+    public final int stride;
+    public final int offset;
+    public final int[] data;
+
+    public Plane(int width, int height) {
+        this(width, height, width, 0, new int[width * height]);
+    }
+
+    public Plane(int width, int height, int[] data) {
+        this(width, height, width, 0, data);
+    }
+
+    public Plane(int width, int height, int stride, int offset, int[] data) {
+        if (width < 0 || height < 0 || stride < width) {
+            throw new IllegalArgumentException(
+                    "bad plane geometry " + width + "x" + height + " stride " + stride);
+        }
+        if (height > 0 && offset + (height - 1) * stride + width > data.length) {
+            throw new IllegalArgumentException(
+                    "buffer of " + data.length + " too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    public boolean isEmpty() {
+        return width == 0 || height == 0;
+    }
+
+    public int index(int r, int c) {
+        return offset + r * stride + c;
+    }
+
+    public int get(int r, int c) {
+        return data[offset + r * stride + c];
+    }
+
+    public void set(int r, int c, int value) {
+        data[offset + r * stride + c] = value;
+    }
+
+    // Edge pixels are repeated outwards
+    public int getClamped(int r, int c) {
+        if (r < 0) r = 0;
+        if (r >= height) r = height - 1;
+        if (c < 0) c = 0;
+        if (c >= width) c = width - 1;
+        return data[offset + r * stride + c];
+    }
+
+    public boolean sameSize(Plane other) {
+        return width == other.width && height == other.height;
+    }
+
+    public static Plane fromRows(int[][] rows) {
+        if (rows.length == 0) {
+            return new Plane(0, 0);
+        }
+        int height = rows.length;
+        int width = rows[0].length;
+        Plane plane = new Plane(width, height);
+        for (int r=0; r<height; r++) {
+            System.arraycopy(rows[r], 0, plane.data, r * width, width);
+        }
+        return plane;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.viewfinder;
+
+/**
+ * The part of a frame a detector runs on: a rectangle in frame pixels and a
+ * pyramid level (1, 2 or 4). The rectangle is box-averaged down by scale
+ * while it is read in, so the detector sees an image of
+ * outputWidth() x outputHeight() and does scale^2 times less work.
+ * toFrameX/toFrameY map result pixels back to frame coordinates.
+ */
+public class Region {
+    public final int left;
+    public final int top;
+    public final int width;
+    public final int height;
+    public final int scale;
+    private final int shift;    // log2(scale * scale)
+
+    public Region(int left, int top, int width, int height, int scale) {
+        if (scale != 1 && scale != 2 && scale != 4) {
+            throw new IllegalArgumentException("scale must be 1, 2 or 4, got " + scale);
+        }
+        if (left < 0 || top < 0 || width < 0 || height < 0) {
+            throw new IllegalArgumentException(
+                    "bad region " + width + "x" + height + " at " + left + "," + top);
+        }
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        this.shift = scale == 1 ? 0 : scale == 2 ? 2 : 4;
+    }
+
+    public static Region full(int frameWidth, int frameHeight, int scale) {
+        return new Region(0, 0, frameWidth, frameHeight, scale);
+    }
+
+    // Pixels of the downscaled image; a partial block at the right/bottom is dropped
+    public int outputWidth() {
+        return width / scale;
+    }
+
+    public int outputHeight() {
+        return height / scale;
+    }
+
+    public boolean isEmpty() {
+        return outputWidth() == 0 || outputHeight() == 0;
+    }
+
+    public boolean fits(int frameWidth, int frameHeight) {
+        return left + width <= frameWidth && top + height <= frameHeight;
+    }
+
+    // Frame column at the centre of output column x
+    public int toFrameX(int x) {
+        return left + x * scale + scale / 2;
+    }
+
+    public int toFrameY(int y) {
+        return top + y * scale + scale / 2;
+    }
+
+    // Frame rows/columns covered by the output, for drawing it back over the frame
+    public int frameRight() {
+        return left + outputWidth() * scale;
+    }
+
+    public int frameBottom() {
+        return top + outputHeight() * scale;
+    }
+
+    /**
+     * Box-averages rows [rowStart, rowEnd) of the output from the Y plane of
+     * a YUV420SP frame, with the same -16 offset and clamp as the full frame
+     * luma path.
+     */
+    void sampleLuma(byte[] yuv420sp, int frameWidth, Plane values, int rowStart, int rowEnd) {
+        int cols = values.width;
+        for (int r=rowStart; r<rowEnd; r++) {
+            int out = values.index(r, 0);
+            int in = (top + r * scale) * frameWidth + left;
+            for (int c=0; c<cols; c++) {
+                int sum = 0;
+                for (int i=0; i<scale; i++) {
+                    int p = in + i * frameWidth;
+                    for (int j=0; j<scale; j++) {
+                        sum += yuv420sp[p + j] & 0xFF;
+                    }
+                }
+                int y = (sum >> shift) - 16;
+                values.data[out + c] = y < 0 ? 0 : y;
+                in += scale;
+            }
+        }
+    }
+
+    // Same for a frame of packed gray pixels (only the low byte is used)
+    void sampleGray(Plane grayBits, Plane values, int rowStart, int rowEnd) {
+        int cols = values.width;
+        for (int r=rowStart; r<rowEnd; r++) {
+            int out = values.index(r, 0);
+            int in = grayBits.index(top + r * scale, left);
+            for (int c=0; c<cols; c++) {
+                int sum = 0;
+                for (int i=0; i<scale; i++) {
+                    int p = in + i * grayBits.stride;
+                    for (int j=0; j<scale; j++) {
+                        sum += grayBits.data[p + j] & 0xFF;
+                    }
+                }
+                values.data[out + c] = sum >> shift;
+                in += scale;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.viewfinder;
+
+/**
+ * The innermost row loops of Convolution, GaussianBlur and Gradient, pulled
+ * out so a SIMD implementation can stand in for them.
+ *
+ * This class is the plain Java version and what Android always runs. On a
+ * JVM started with --add-modules jdk.incubator.vector and the vector source
+ * set (app/src/vector/java) on the class path, ACTIVE is VectorRowKernels
+ * instead; -Dviewfinder.simd=false forces the scalar loops. Both give
+ * bit-identical results.
+ */
+class RowKernels {
+    static final RowKernels SCALAR = new RowKernels();
+    static final RowKernels ACTIVE = load();
+
+    private static RowKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("viewfinder.simd", "true"))) {
+            return SCALAR;
+        }
+        try {
+            Class<?> c = Class.forName("com.example.viewfinder.VectorRowKernels");
+            if (!(Boolean) c.getDeclaredMethod("isSupported").invoke(null)) {
+                return SCALAR;
+            }
+            return (RowKernels) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not on the class path, or the incubator module isn't there
+            return SCALAR;
+        }
+    }
+
+    String name() {
+        return "scalar";
+    }
+
+    // out[outPos + k] = sum of taps[t] * in[inPos + k + t], for k in [0, count)
+    void correlate(int[] in, int inPos, int[] taps, int[] out, int outPos, int count) {
+        int n = taps.length;
+        if (n == 3) {
+            int t0 = taps[0], t1 = taps[1], t2 = taps[2];
+            for (int k=0; k<count; k++) {
+                int i = inPos + k;
+                out[outPos + k] = t0 * in[i] + t1 * in[i + 1] + t2 * in[i + 2];
+            }
+            return;
+        }
+        for (int k=0; k<count; k++) {
+            int i = inPos + k;
+            int sum = 0;
+            for (int t=0; t<n; t++) {
+                sum += taps[t] * in[i + t];
+            }
+            out[outPos + k] = sum;
+        }
+    }
+
+    /**
+     * out[outPos + k] = sum of taps[t] * in[rows[t] + k], then with shift > 0
+     * a rounding shift right by shift bits.
+     */
+    void combineRows(int[] in, int[] rows, int[] taps, int[] out, int outPos, int count, int shift) {
+        for (int t=0; t<taps.length; t++) {
+            int inRow = rows[t];
+            int w = taps[t];
+            if (t == 0) {
+                for (int k=0; k<count; k++) {
+                    out[outPos + k] = w * in[inRow + k];
+                }
+            } else if (w != 0) {
+                for (int k=0; k<count; k++) {
+                    out[outPos + k] += w * in[inRow + k];
+                }
+            }
+        }
+        if (shift > 0) {
+            int round = 1 << (shift - 1);
+            for (int k=0; k<count; k++) {
+                out[outPos + k] = (out[outPos + k] + round) >> shift;
+            }
+        }
+    }
+
+    /**
+     * 3x3 gradient of the pixels in[mid + k], k in [0, count), whose rows
+     * above and below start at up and down, with centre weight w (see
+     * Gradient). Any of gx, gy, mag and dir may be null; outputs go to
+     * outPos + k.
+     */
+    void gradient(int[] in, int up, int mid, int down, int w, boolean l1,
+                  int[] gx, int[] gy, int[] mag, byte[] dir, int outPos, int count) {
+        for (int k=0; k<count; k++) {
+            int a = in[up + k - 1], b = in[up + k], cc = in[up + k + 1];
+            int d = in[mid + k - 1], f = in[mid + k + 1];
+            int g = in[down + k - 1], h = in[down + k], i = in[down + k + 1];
+
+            int x = (a + w * d + g) - (cc + w * f + i);
+            int y = (a + w * b + cc) - (g + w * h + i);
+            int o = outPos + k;
+            if (gx != null) gx[o] = x;
+            if (gy != null) gy[o] = y;
+            if (dir != null) dir[o] = Gradient.directionCode(x, y);
+            if (mag != null) mag[o] = Gradient.magnitude(x, y, l1);
+        }
+    }
+}
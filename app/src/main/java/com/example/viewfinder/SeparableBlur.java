@@ -0,0 +1,39 @@
+package com.example.viewfinder;
+
+/**
+ * A blur done as two passes the Canny stages can run in strips: along the
+ * rows into a scratch plane, then down the columns from it, with replicated
+ * borders. GaussianBlur and BoxBlur are the two kinds; DetectorOptions.blur
+ * and StreamingCanny take either.
+ */
+public abstract class SeparableBlur {
+    public final double sigma;      // of the Gaussian this is, or stands in for
+    public final int size;
+
+    SeparableBlur(double sigma, int size) {
+        if (size < 1 || size % 2 == 0) {
+            throw new IllegalArgumentException("blur size must be odd, got " + size);
+        }
+        this.sigma = sigma;
+        this.size = size;
+    }
+
+    public void apply(Plane src, Plane dst, Plane tmp) {
+        apply(src, dst, tmp, 0, src.height);
+    }
+
+    public void apply(Plane src, Plane dst, Plane tmp, int rowStart, int rowEnd) {
+        int half = size / 2;
+        horizontal(src, tmp, Math.max(0, rowStart - half), Math.min(src.height, rowEnd + half));
+        vertical(tmp, dst, rowStart, rowEnd);
+    }
+
+    // First pass: blur along rows [rowStart, rowEnd) of src into tmp
+    public abstract void horizontal(Plane src, Plane tmp, int rowStart, int rowEnd);
+
+    // Second pass: needs tmp rows within size / 2 of [rowStart, rowEnd) already done
+    public abstract void vertical(Plane tmp, Plane dst, int rowStart, int rowEnd);
+
+    // One row of the second pass, from first pass rows at in[rows[t]], t < size
+    abstract void verticalRow(int[] in, int[] rows, int[] out, int outPos, int count);
+}
@@ -1,5 +1,5 @@
 package com.example.viewfinder;
 
 public enum SobelOp {
-    X_3x3, Y_3x3
+    X_3x3, Y_3x3, X_5x5, Y_5x5
 }
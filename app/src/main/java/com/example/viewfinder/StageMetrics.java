@@ -0,0 +1,156 @@
+package com.example.viewfinder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolling per-stage timings of the detector.
+ *
+ * Set an instance on DetectorOptions.metrics and EdgeDetector records the
+ * wall time of every stage it runs; the frame driver (FrameProcessor,
+ * BatchDetector) adds whole-frame times, drops and allocations. Samples go
+ * into the current window; once a window is windowNanos old the next
+ * frameDone() retires it, and snapshot() reports the last complete window
+ * (or the current one before the first has completed).
+ */
+public class StageMetrics {
+    public static final int DECODE = 0;
+    public static final int BLUR = 1;
+    public static final int GRADIENT = 2;   // including Canny's direction codes
+    public static final int NMS = 3;
+    public static final int HYSTERESIS = 4;
+    public static final int PACK = 5;
+    public static final int FRAME = 6;      // whole frame, as seen by the driver
+    public static final int STAGES = 7;
+
+    static final String[] NAMES = {
+            "decode", "blur", "gradient", "nms", "hysteresis", "pack", "frame"
+    };
+
+    private static class Window {
+        final LatencyHistogram[] stages = new LatencyHistogram[STAGES];
+        final AtomicLong frames = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong allocated = new AtomicLong();
+        volatile long startNanos;
+        volatile long endNanos;
+
+        Window() {
+            for (int i=0; i<STAGES; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+
+        void reset(long now) {
+            for (LatencyHistogram h : stages) {
+                h.reset();
+            }
+            frames.set(0);
+            dropped.set(0);
+            allocated.set(0);
+            startNanos = now;
+            endNanos = 0;
+        }
+    }
+
+    public static class Snapshot {
+        public final long[] p50 = new long[STAGES];
+        public final long[] p95 = new long[STAGES];
+        public final long[] p99 = new long[STAGES];
+        public final long[] max = new long[STAGES];
+        public final long[] count = new long[STAGES];
+        public long frames;
+        public long dropped;
+        public long allocatedBytes;     // per window, as reported by the driver
+        public long windowNanos;
+
+        public double fps() {
+            return windowNanos <= 0 ? 0 : frames * 1e9 / windowNanos;
+        }
+
+        public static String name(int stage) {
+            return NAMES[stage];
+        }
+
+        // e.g. "blur 1.2/1.9/2.4 ms" (p50/p95/p99)
+        public String describe(int stage) {
+            return String.format("%s %.1f/%.1f/%.1f ms", NAMES[stage],
+                    p50[stage] / 1e6, p95[stage] / 1e6, p99[stage] / 1e6);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(
+                    "%.1f fps, %d dropped, %d bytes allocated", fps(), dropped, allocatedBytes));
+            for (int i=0; i<STAGES; i++) {
+                if (count[i] > 0) sb.append("\n").append(describe(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final long windowNanos;
+    private final Window[] windows = {new Window(), new Window()};
+    private volatile int current;
+    private volatile boolean completed;
+
+    public StageMetrics() {
+        this(1000000000L);
+    }
+
+    public StageMetrics(long windowNanos) {
+        this.windowNanos = windowNanos;
+        windows[0].reset(System.nanoTime());
+    }
+
+    public void record(int stage, long nanos) {
+        windows[current].stages[stage].record(nanos);
+    }
+
+    // One frame finished in nanos end to end, allocating about allocatedBytes
+    public void frameDone(long nanos, long allocatedBytes) {
+        Window w = windows[current];
+        w.stages[FRAME].record(nanos);
+        w.frames.incrementAndGet();
+        if (allocatedBytes > 0) w.allocated.addAndGet(allocatedBytes);
+        long now = System.nanoTime();
+        if (now - w.startNanos >= windowNanos) {
+            roll(w, now);
+        }
+    }
+
+    public void frameDropped() {
+        windows[current].dropped.incrementAndGet();
+    }
+
+    private synchronized void roll(Window w, long now) {
+        if (windows[current] != w) return;      // another thread got here first
+        w.endNanos = now;
+        Window next = windows[current ^ 1];
+        next.reset(now);
+        current ^= 1;
+        completed = true;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(new Snapshot());
+    }
+
+    // Fills out, so a UI can poll every frame without allocating
+    public synchronized Snapshot snapshot(Snapshot out) {
+        Window w = completed ? windows[current ^ 1] : windows[current];
+        long end = completed ? w.endNanos : System.nanoTime();
+        for (int i=0; i<STAGES; i++) {
+            LatencyHistogram h = w.stages[i];
+            out.p50[i] = h.percentile(0.50);
+            out.p95[i] = h.percentile(0.95);
+            out.p99[i] = h.percentile(0.99);
+            out.max[i] = h.max();
+            out.count[i] = h.count();
+        }
+        out.frames = w.frames.get();
+        out.dropped = w.dropped.get();
+        out.allocatedBytes = w.allocated.get();
+        out.windowNanos = end - w.startNanos;
+        return out;
+    }
+}
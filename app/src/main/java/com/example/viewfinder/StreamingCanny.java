@@ -0,0 +1,410 @@
+package com.example.viewfinder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Canny over a frame read one row at a time, for frames too large to keep
+ * as a stack of full-size int planes.
+ *
+ * Blur, gradient, direction codes and non-maximum suppression are chained
+ * through rolling row buffers (blur size rows for the Gaussian, three for
+ * the blurred image and the magnitudes), so each input row is used up as
+ * soon as it is read and the working set is a few dozen rows. Every pixel
+ * that survives suppression is classified as weak or strong straight into
+ * the caller's one-byte-per-pixel edge map, and hysteresis then runs over
+ * that map with a stack of fixed size. Kept pixels come out as EDGE, the
+ * rest as 0.
+ *
+ * The thresholds are needed before the frame has been seen, so they come
+ * from the previous frame: the mean of its suppressed magnitudes, or its
+ * magnitude histogram for adaptive CannyThresholds. The first frame, and
+ * every frame once setExact(true), is streamed twice, once for its own
+ * statistics and once to classify; that gives exactly the nonzero pixels of
+ * EdgeDetector.CannyEdges. The blur is always a SeparableBlur: opts.blur,
+ * or GaussianBlur.DEFAULT when that is null. LOCAL
+ * thresholds need every magnitude of the frame at once and are refused.
+ * An EdgeOutputs is filled as in EdgeDetector, but its list can hold
+ * positions only. Not thread safe.
+ */
+public class StreamingCanny {
+    public static final byte EDGE = (byte) 0xFF;
+
+    // edge map bits until hysteresis has finished
+    private static final int WEAK = 1;
+    private static final int STRONG = 2;
+    private static final int KEPT = 4;
+    private static final int NONZERO = 8;      // a kept zero only links, it isn't an edge
+
+    // Neighbours (r + dr, c + dc) and (r - dr, c - dc) per Gradient direction code
+    private static final int[] DR = {1, 1, 0, 1};
+    private static final int[] DC = {0, -1, 1, 1};
+
+    public final int width;
+    public final int height;
+    private boolean exact;
+
+    private int blurSize;
+    private Plane gray;             // input rows, a ring of blurSize rows
+    private Plane rowsBlurred;      // after the horizontal pass, same ring
+    private final Plane blurred;    // ring of 3 rows
+    private final Plane magnitude;  // ring of 3 rows
+    private final byte[] directions;
+    private final int[] stack;      // hysteresis; rescans the map if it fills up
+    private int[] tapRows = new int[0];
+    private final int[] ahead = new int[4];
+    private final int[] behind = new int[4];
+
+    // where the current frame comes from
+    private byte[] lumaBytes;
+    private ByteBuffer lumaBuffer;
+    private byte[] grayBytes;
+
+    // statistics of the frame being streamed, and thresholds from the one before
+    private long sum;
+    private final int[] histogram = new int[CannyThresholds.BINS];
+    private boolean haveStats;
+    private CannyThresholds.Method statsMethod;
+    private double smoothedHigh = -1;
+    private int lower, upper;
+
+    public StreamingCanny(int width, int height) {
+        this(width, height, Math.max(1024, 4 * width));
+    }
+
+    StreamingCanny(int width, int height, int stackSize) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("bad frame size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        blurred = new Plane(width, 3);
+        magnitude = new Plane(width, 3);
+        directions = new byte[3 * width];
+        stack = new int[stackSize];
+    }
+
+    /**
+     * With exact set every frame is streamed twice and thresholded on its own
+     * statistics, so the result doesn't depend on what came before.
+     */
+    public StreamingCanny setExact(boolean exact) {
+        this.exact = exact;
+        return this;
+    }
+
+    // Scratch held right now, excluding the caller's frames; grows with width only
+    public long workingBytes() {
+        long rows = 2L * blurSize + 3 + 3;
+        return 4L * rows * width + directions.length + 4L * (stack.length + histogram.length);
+    }
+
+    // Forget the previous frame; the next one is streamed twice
+    public void reset() {
+        haveStats = false;
+        smoothedHigh = -1;
+    }
+
+    // Y plane of an NV21 frame (or any Y plane, stride = width), read like EdgeDetector.Detect
+    public void detect(byte[] nv21, byte[] edges, DetectorOptions opts) {
+        detect(nv21, edges, opts, null);
+    }
+
+    public void detect(byte[] nv21, byte[] edges, DetectorOptions opts, EdgeOutputs out) {
+        checkSize(nv21.length, edges);
+        lumaBytes = nv21;
+        run(edges, opts, out);
+        lumaBytes = null;
+    }
+
+    // The same from a buffer, e.g. a FrameStream.Reader.luma() view; absolute gets only
+    public void detect(ByteBuffer luma, byte[] edges, DetectorOptions opts) {
+        detect(luma, edges, opts, null);
+    }
+
+    public void detect(ByteBuffer luma, byte[] edges, DetectorOptions opts, EdgeOutputs out) {
+        checkSize(luma.limit(), edges);
+        lumaBuffer = luma;
+        run(edges, opts, out);
+        lumaBuffer = null;
+    }
+
+    // Plain 8-bit gray pixels, taken as they are (no -16 luma offset)
+    public void detectGray(byte[] gray, byte[] edges, DetectorOptions opts) {
+        detectGray(gray, edges, opts, null);
+    }
+
+    public void detectGray(byte[] gray, byte[] edges, DetectorOptions opts, EdgeOutputs out) {
+        checkSize(gray.length, edges);
+        grayBytes = gray;
+        run(edges, opts, out);
+        grayBytes = null;
+    }
+
+    private void checkSize(int pixels, byte[] edges) {
+        if (pixels < width * height || edges.length < width * height) {
+            throw new IllegalArgumentException("need " + width * height + " pixels in and out, got "
+                    + pixels + " and " + edges.length);
+        }
+    }
+
+    private void run(byte[] edges, DetectorOptions opts, EdgeOutputs out) {
+        SeparableBlur blur = opts.blur != null ? opts.blur : GaussianBlur.DEFAULT;
+        CannyThresholds t = opts.thresholds;
+        if (t.method == CannyThresholds.Method.LOCAL) {
+            throw new IllegalArgumentException("local thresholds need the whole frame's magnitudes");
+        }
+        EdgeList list = out != null ? out.list : null;
+        if (list != null && list.values) {
+            throw new IllegalArgumentException("no magnitudes are kept for EdgeList values");
+        }
+        if (blur.size != blurSize) {
+            blurSize = blur.size;
+            gray = new Plane(width, blurSize);
+            rowsBlurred = new Plane(width, blurSize);
+            tapRows = new int[blurSize];
+        }
+        boolean twoPass = exact || !haveStats || statsMethod != t.method;
+        if (twoPass) {
+            stream(edges, blur, opts, false);
+            updateThresholds(t);
+        }
+        stream(edges, blur, opts, true);
+        if (!twoPass) {
+            updateThresholds(t);    // for the next frame
+        }
+
+        long start = opts.metrics != null ? System.nanoTime() : 0;
+        hysteresis(edges, list, out != null ? out.runs : null, out != null ? out.mask : null);
+        if (opts.metrics != null) {
+            opts.metrics.record(StageMetrics.HYSTERESIS, System.nanoTime() - start);
+        }
+    }
+
+    // Thresholds for the next pass from the statistics of the one just streamed
+    private void updateThresholds(CannyThresholds t) {
+        if (t.adaptive()) {
+            smoothedHigh = t.smooth(smoothedHigh, t.high(histogram));
+            upper = Math.max(1, (int) Math.round(smoothedHigh));
+            lower = (int) Math.ceil(t.lowRatio * upper);
+        } else {
+            double mean = (double) sum / ((long) width * height);
+            lower = (int) Math.ceil(EdgeDetector.LOWER_THRESH * mean);
+            upper = (int) Math.ceil(EdgeDetector.UPPER_THRESH * mean);
+        }
+        statsMethod = t.method;
+        haveStats = true;
+    }
+
+    /**
+     * One pass over the frame. Row i is read at step i; blurred row i - half,
+     * its gradient one step later and its suppression one step after that.
+     */
+    private void stream(byte[] edges, SeparableBlur blur, DetectorOptions opts, boolean classify) {
+        int half = blur.size / 2;
+        boolean adaptive = opts.thresholds.adaptive();
+        sum = 0;
+        if (adaptive) {
+            Arrays.fill(histogram, 0);
+        }
+        for (int i=0; i<height+half+2; i++) {
+            if (i < height) {
+                int s = i % blurSize;
+                readRow(i, gray.data, s * width);
+                blur.horizontal(gray, rowsBlurred, s, s + 1);
+            }
+            int b = i - half;
+            if (b >= 0 && b < height) {
+                blurRow(b, blur);
+            }
+            int g = b - 1;
+            if (g >= 0 && g < height) {
+                gradientRow(g, opts.l1Magnitude, adaptive);
+            }
+            int n = g - 1;
+            if (n >= 0 && n < height) {
+                suppressRow(n, edges, classify);
+            }
+        }
+    }
+
+    private void readRow(int r, int[] out, int pos) {
+        int in = r * width;
+        if (lumaBytes != null) {
+            EdgeDetector.LumaRow(lumaBytes, in, out, pos, width);
+        } else if (lumaBuffer != null) {
+            EdgeDetector.LumaRow(lumaBuffer, in, out, pos, width);
+        } else {
+            for (int c=0; c<width; c++) {
+                out[pos + c] = grayBytes[in + c] & 0xFF;
+            }
+        }
+    }
+
+    private int clampRow(int r) {
+        return r < 0 ? 0 : r >= height ? height - 1 : r;
+    }
+
+    // Offset of frame row r in a ring of the given number of rows
+    private int slot(int r, int rows) {
+        return (clampRow(r) % rows) * width;
+    }
+
+    // Vertical pass, as SeparableBlur.vertical with the source rows picked out of the ring
+    private void blurRow(int b, SeparableBlur blur) {
+        int half = blur.size / 2;
+        for (int t=0; t<blur.size; t++) {
+            tapRows[t] = slot(b + t - half, blurSize);
+        }
+        blur.verticalRow(rowsBlurred.data, tapRows, blurred.data, slot(b, 3), width);
+    }
+
+    private void gradientRow(int g, boolean l1, boolean adaptive) {
+        int[] in = blurred.data;
+        int up = slot(g - 1, 3), mid = slot(g, 3), down = slot(g + 1, 3);
+        int out = mid;
+        if (width >= 3) {
+            RowKernels.ACTIVE.gradient(in, up + 1, mid + 1, down + 1, Gradient.SOBEL, l1,
+                    null, null, magnitude.data, directions, out + 1, width - 2);
+            gradientAt(in, up, mid, down, 0, l1, out);
+            gradientAt(in, up, mid, down, width - 1, l1, out);
+        } else {
+            for (int c=0; c<width; c++) {
+                gradientAt(in, up, mid, down, c, l1, out);
+            }
+        }
+        if (adaptive) {
+            int last = histogram.length - 1;
+            for (int c=0; c<width; c++) {
+                int m = magnitude.data[out + c];
+                histogram[m < last ? m : last]++;
+            }
+        }
+    }
+
+    // Gradient's border case: columns outside the row repeat its edge pixels
+    private void gradientAt(int[] in, int up, int mid, int down, int c, boolean l1, int out) {
+        int l = Math.max(0, c - 1), r = Math.min(width - 1, c + 1);
+        int a = in[up + l], b = in[up + c], cc = in[up + r];
+        int d = in[mid + l], f = in[mid + r];
+        int g = in[down + l], h = in[down + c], i = in[down + r];
+
+        int w = Gradient.SOBEL;
+        int x = (a + w * d + g) - (cc + w * f + i);
+        int y = (a + w * b + cc) - (g + w * h + i);
+        magnitude.data[out + c] = Gradient.magnitude(x, y, l1);
+        directions[out + c] = Gradient.directionCode(x, y);
+    }
+
+    private void suppressRow(int n, byte[] edges, boolean classify) {
+        int[] m = magnitude.data;
+        int up = slot(n - 1, 3), mid = slot(n, 3), down = slot(n + 1, 3);
+        for (int d=0; d<4; d++) {
+            int dr = DR[d], dc = DC[d];
+            ahead[d] = (dr > 0 ? down : mid) + dc;
+            behind[d] = (dr > 0 ? up : mid) - dc;
+        }
+        int row = n * width;
+        for (int c=0; c<width; c++) {
+            int grad = m[mid + c];
+            int dir = directions[mid + c];
+            int v;
+            if (c > 0 && c < width - 1) {
+                v = grad >= m[ahead[dir] + c] && grad >= m[behind[dir] + c] ? grad : 0;
+            } else {
+                int c1 = Math.max(0, Math.min(width - 1, c + DC[dir]));
+                int c2 = Math.max(0, Math.min(width - 1, c - DC[dir]));
+                int r1 = DR[dir] > 0 ? down : mid;
+                int r2 = DR[dir] > 0 ? up : mid;
+                v = grad >= m[r1 + c1] && grad >= m[r2 + c2] ? grad : 0;
+            }
+            sum += v;
+            if (classify) {
+                int bits = v >= upper ? WEAK | STRONG : v >= lower ? WEAK : 0;
+                if (bits != 0 && v > 0) bits |= NONZERO;
+                edges[row + c] = (byte) bits;
+            }
+        }
+    }
+
+    // EdgeDetector.hysteresis over the classified map, filling list, runs and mask if set
+    private void hysteresis(byte[] edges, EdgeList list, EdgeRuns runs, EdgeMask mask) {
+        int pixels = width * height;
+        int top = 0;
+        boolean overflow = false;
+        for (int p=0; p<pixels; p++) {
+            if ((edges[p] & STRONG) != 0) {
+                edges[p] |= KEPT;
+                if (top < stack.length) stack[top++] = p; else overflow = true;
+            }
+        }
+
+        while (true) {
+            while (top > 0) {
+                int p = stack[--top];
+                int r = p / width;
+                int c = p - r * width;
+                for (int x=Math.max(0, r-1); x<=Math.min(height-1, r+1); x++) {
+                    for (int y=Math.max(0, c-1); y<=Math.min(width-1, c+1); y++) {
+                        int q = x * width + y;
+                        if ((edges[q] & (WEAK | KEPT)) == WEAK) {
+                            edges[q] |= KEPT;
+                            if (top < stack.length) stack[top++] = q; else overflow = true;
+                        }
+                    }
+                }
+            }
+            if (!overflow) break;
+            // the stack ran out: start again from kept pixels that still have weak neighbours
+            overflow = false;
+            for (int p=0; p<pixels && !overflow; p++) {
+                if ((edges[p] & KEPT) != 0 && hasUnkeptNeighbour(edges, p)) {
+                    if (top < stack.length) stack[top++] = p; else overflow = true;
+                }
+            }
+        }
+
+        if (list == null && runs == null && mask == null) {
+            for (int p=0; p<pixels; p++) {
+                edges[p] = (edges[p] & (KEPT | NONZERO)) == (KEPT | NONZERO) ? EDGE : 0;
+            }
+            return;
+        }
+        if (list != null) list.start(width, height);
+        if (runs != null) runs.start(width, height);
+        if (mask != null) mask.start(width, height);
+        for (int r=0; r<height; r++) {
+            int row = r * width;
+            int run = -1;
+            for (int c=0; c<width; c++) {
+                if ((edges[row + c] & (KEPT | NONZERO)) == (KEPT | NONZERO)) {
+                    edges[row + c] = EDGE;
+                    if (list != null) list.add(row + c, 0, (byte) 0);
+                    if (mask != null) mask.mark(r, c);
+                    if (run < 0) run = c;
+                } else {
+                    edges[row + c] = 0;
+                    if (run >= 0) {
+                        if (runs != null) runs.add(run, c - run);
+                        run = -1;
+                    }
+                }
+            }
+            if (runs != null) {
+                if (run >= 0) runs.add(run, width - run);
+                runs.endRow();
+            }
+        }
+    }
+
+    private boolean hasUnkeptNeighbour(byte[] edges, int p) {
+        int r = p / width;
+        int c = p - r * width;
+        for (int x=Math.max(0, r-1); x<=Math.min(height-1, r+1); x++) {
+            for (int y=Math.max(0, c-1); y<=Math.min(width-1, c+1); y++) {
+                if ((edges[x * width + y] & (WEAK | KEPT)) == WEAK) return true;
+            }
+        }
+        return false;
+    }
+}
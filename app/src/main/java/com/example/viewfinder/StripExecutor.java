@@ -0,0 +1,151 @@
+package com.example.viewfinder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits a frame into horizontal strips and runs a row task over them on a
+ * fixed set of worker threads, with the calling thread helping out.
+ *
+ * run() returns only when every strip is done, so consecutive calls act as
+ * stage barriers: a stage may read rows outside its own strip (the halo
+ * around it) from the planes written by the previous stage. Nothing is
+ * allocated per call. Only one thread may call run() at a time.
+ */
+public class StripExecutor {
+    public interface RowTask {
+        void run(int rowStart, int rowEnd);
+    }
+
+    private static final int MIN_STRIP_ROWS = 8;
+
+    private final Object lock = new Object();
+    private final Thread[] workers;
+    private final int maxStrips;
+
+    // high 32 bits: generation, low 32 bits: next strip to hand out
+    private final AtomicLong ticket = new AtomicLong();
+    private int generation;
+    private RowTask task;
+    private int rows;
+    private int strips;
+    private int pending;
+    private Throwable failure;
+    private boolean shutdown;
+
+    public StripExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread, got " + threads);
+        }
+        // a few strips per thread so an unlucky slow strip doesn't stall everyone
+        maxStrips = threads * 4;
+        workers = new Thread[threads - 1];
+        for (int i=0; i<workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    workerLoop();
+                }
+            }, "EdgeStrip-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public int threads() {
+        return workers.length + 1;
+    }
+
+    public void run(RowTask task, int rows) {
+        int gen;
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("executor has been shut down");
+            }
+            this.task = task;
+            this.rows = rows;
+            this.strips = Math.max(1, Math.min(maxStrips, rows / MIN_STRIP_ROWS));
+            this.pending = strips;
+            this.failure = null;
+            gen = ++generation;
+            ticket.set((long) gen << 32);
+            lock.notifyAll();
+        }
+        work(gen, task, rows, strips);
+
+        Throwable t;
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            this.task = null;
+            t = failure;
+        }
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void workerLoop() {
+        int seen = 0;
+        while (true) {
+            int gen;
+            RowTask t;
+            int n, s;
+            synchronized (lock) {
+                while (generation == seen && !shutdown) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) return;
+                gen = seen = generation;
+                t = task;
+                n = rows;
+                s = strips;
+            }
+            if (t != null) {
+                work(gen, t, n, s);
+            }
+        }
+    }
+
+    private void work(int gen, RowTask t, int n, int s) {
+        while (true) {
+            long v = ticket.get();
+            int index = (int) v;
+            if ((int) (v >>> 32) != gen || index >= s) {
+                return;     // all strips of this generation handed out
+            }
+            if (!ticket.compareAndSet(v, v + 1)) {
+                continue;
+            }
+            try {
+                t.run((int) ((long) n * index / s), (int) ((long) n * (index + 1) / s));
+            } catch (Throwable e) {
+                synchronized (lock) {
+                    if (failure == null) failure = e;
+                }
+            }
+            synchronized (lock) {
+                if (--pending == 0) lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.viewfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Incremental detection for a mostly still camera.
+ *
+ * The detector output is split into tileSize x tileSize tiles. Every frame
+ * the luma is read in as usual and each tile is compared (sum of absolute
+ * differences) with the luma its cached result was computed from; a tile is
+ * dirty when the mean difference exceeds threshold. A pixel's result depends
+ * on neighbours up to EdgeDetector.halo() away, so each dirty tile is
+ * recomputed grown by the halo, from a window grown by the halo again, and
+ * copied into the cache; all other pixels are reused. With threshold 0 the
+ * output is exactly what a full run gives.
+ *
+ * Canny's thresholds are global, so for Canny the cache holds the suppressed
+ * gradient and the thresholding pass still covers the whole frame. When more
+ * than fullFraction of the tiles are dirty, or the mode, region or options
+ * changed, the frame is simply run in full. Not thread safe; use one per
+ * frame stream.
+ */
+public class TemporalDetector {
+    public static final int DEFAULT_TILE = 32;
+    public static final double DEFAULT_THRESHOLD = 3.0;    // above sensor noise on a still scene
+
+    public final int tileSize;
+    public final double threshold;      // mean |luma difference| per pixel that dirties a tile
+    public final double fullFraction;   // share of dirty tiles above which the frame is rerun
+
+    // the cache, valid for one mode, region and set of options
+    private Plane reference;        // luma each tile's cached result came from
+    private Plane result;           // gradient magnitude, or Canny's suppressed gradient
+    private Plane magnitude;        // Canny with adaptive thresholds: the unsuppressed magnitude
+    private Plane edges;            // Canny after thresholding
+    private byte[] directions;      // Canny: direction codes behind result, for EdgeList values
+    private final int[] histogram = new int[CannyThresholds.BINS];     // of magnitude
+    private boolean valid;
+    private CameraMode mode;
+    private int regionLeft, regionTop, regionScale, frameWidth, frameHeight;
+    private SeparableBlur blur;
+    private boolean l1Magnitude;
+    private boolean adaptive;
+
+    private int tilesX, tilesY;
+    private boolean[] dirty;
+    private int dirtyTiles;
+    private long recomputedPixels;
+
+    // tiles run serially and report their stage times through the frame's Stages
+    private final DetectorOptions tileOpts = new DetectorOptions();
+    private final ArrayList<Workspace> tileWorkspaces = new ArrayList<>();
+
+    public TemporalDetector() {
+        this(DEFAULT_TILE, DEFAULT_THRESHOLD, 0.5);
+    }
+
+    public TemporalDetector(int tileSize, double threshold, double fullFraction) {
+        if (tileSize < 1 || threshold < 0 || fullFraction < 0 || fullFraction > 1) {
+            throw new IllegalArgumentException("bad temporal settings: tile " + tileSize
+                    + ", threshold " + threshold + ", full fraction " + fullFraction);
+        }
+        this.tileSize = tileSize;
+        this.threshold = threshold;
+        this.fullFraction = fullFraction;
+    }
+
+    // Forget the cached frame; the next one runs in full
+    public void reset() {
+        valid = false;
+    }
+
+    public int tiles() {
+        return tilesX * tilesY;
+    }
+
+    // Of the last frame; every tile when it ran in full
+    public int dirtyTiles() {
+        return dirtyTiles;
+    }
+
+    // Output pixels the detector ran on in the last frame, halos included
+    public long recomputedPixels() {
+        return recomputedPixels;
+    }
+
+    /**
+     * Same contract as EdgeDetector.Detect on an NV21 frame: the returned
+     * plane is ws.width x ws.height and belongs to this detector until the
+     * next call. Returns null for modes that produce no edges.
+     */
+    public Plane detect(CameraMode mode, byte[] nv21, int width, int height, Region region,
+                        Workspace ws, DetectorOptions opts) {
+        return detect(mode, nv21, width, height, region, ws, opts, null);
+    }
+
+    // The same, with Canny's edge pixels also collected into out for the whole frame
+    public Plane detect(CameraMode mode, byte[] nv21, int width, int height, Region region,
+                        Workspace ws, DetectorOptions opts, EdgeOutputs out) {
+        if (mode != CameraMode.SOBEL && mode != CameraMode.PREWITT && mode != CameraMode.CANNY) {
+            return null;
+        }
+        if (nv21.length < width * height) {
+            throw new IllegalArgumentException("frame of " + nv21.length
+                    + " bytes is too short for " + width + "x" + height);
+        }
+        EdgeDetector.checkRegion(region, width, height, ws);
+        if (ws.width == 0 || ws.height == 0) {
+            return null;
+        }
+
+        EdgeDetector.Stages stages = ws.stages().from(nv21, width, region);
+        stages.opts = opts;
+        stages.gradientWeight = mode == CameraMode.PREWITT ? Gradient.PREWITT : Gradient.SOBEL;
+        stages.runStage(opts.executor, EdgeDetector.Stages.GRAY);
+        Plane gray = ws.gray();
+
+        if (!matches(mode, width, height, region, ws, opts)) {
+            prepare(mode, width, height, region, ws, opts);
+        }
+        if (valid) {
+            // comparing tiles counts as part of reading the frame in
+            long start = opts.metrics != null ? System.nanoTime() : 0;
+            markDirty(gray);
+            if (opts.metrics != null) {
+                stages.nanos[StageMetrics.DECODE] += System.nanoTime() - start;
+            }
+        }
+        if (!valid || dirtyTiles > fullFraction * tiles()) {
+            runFull(stages, gray, opts);
+        } else if (dirtyTiles > 0) {
+            runTiles(stages, gray, opts);
+        } else {
+            recomputedPixels = 0;
+        }
+
+        Plane detected = result;
+        if (mode == CameraMode.CANNY) {
+            System.arraycopy(result.data, 0, edges.data, 0, result.data.length);
+            if (adaptive) {
+                System.arraycopy(histogram, 0, stages.histogram, 0, histogram.length);
+            }
+            EdgeDetector.threshold(stages, opts, edges, directions, out);
+            detected = edges;
+        }
+        stages.flushTimings();
+        stages.from((Plane) null);
+        return detected;
+    }
+
+    private boolean matches(CameraMode mode, int width, int height, Region region,
+                            Workspace ws, DetectorOptions opts) {
+        int left = region != null ? region.left : 0;
+        int top = region != null ? region.top : 0;
+        int scale = region != null ? region.scale : 1;
+        return result != null && result.width == ws.width && result.height == ws.height
+                && this.mode == mode && frameWidth == width && frameHeight == height
+                && regionLeft == left && regionTop == top && regionScale == scale
+                && blur == opts.blur && l1Magnitude == opts.l1Magnitude
+                && adaptive == opts.thresholds.adaptive();
+    }
+
+    // (Re)creates the cache for new settings; nothing is allocated while they stay the same
+    private void prepare(CameraMode mode, int width, int height, Region region,
+                         Workspace ws, DetectorOptions opts) {
+        this.mode = mode;
+        frameWidth = width;
+        frameHeight = height;
+        regionLeft = region != null ? region.left : 0;
+        regionTop = region != null ? region.top : 0;
+        regionScale = region != null ? region.scale : 1;
+        blur = opts.blur;
+        l1Magnitude = opts.l1Magnitude;
+        adaptive = opts.thresholds.adaptive();
+        valid = false;
+
+        if (result == null || result.width != ws.width || result.height != ws.height) {
+            reference = new Plane(ws.width, ws.height);
+            result = new Plane(ws.width, ws.height);
+            magnitude = null;
+            edges = null;
+            tilesX = (ws.width + tileSize - 1) / tileSize;
+            tilesY = (ws.height + tileSize - 1) / tileSize;
+            dirty = new boolean[tilesX * tilesY];
+            tileWorkspaces.clear();
+        }
+        if (mode == CameraMode.CANNY && edges == null) {
+            edges = new Plane(ws.width, ws.height);
+            directions = new byte[ws.width * ws.height];
+        }
+        if (mode == CameraMode.CANNY && adaptive && magnitude == null) {
+            magnitude = new Plane(ws.width, ws.height);
+        }
+    }
+
+    // Flags the tiles whose luma moved more than threshold since their result was cached
+    private void markDirty(Plane gray) {
+        int[] now = gray.data;
+        int[] then = reference.data;
+        dirtyTiles = 0;
+        for (int ty=0; ty<tilesY; ty++) {
+            int y0 = ty * tileSize;
+            int y1 = Math.min(y0 + tileSize, gray.height);
+            for (int tx=0; tx<tilesX; tx++) {
+                int x0 = tx * tileSize;
+                int x1 = Math.min(x0 + tileSize, gray.width);
+                long limit = (long) (threshold * (x1 - x0) * (y1 - y0));
+                long sad = 0;
+                for (int r=y0; r<y1 && sad <= limit; r++) {
+                    int a = gray.index(r, x0);
+                    int b = r * reference.width + x0;
+                    for (int c=0; c<x1-x0; c++) {
+                        sad += Math.abs(now[a + c] - then[b + c]);
+                    }
+                }
+                boolean d = sad > limit;
+                dirty[ty * tilesX + tx] = d;
+                if (d) dirtyTiles++;
+            }
+        }
+    }
+
+    private void runFull(EdgeDetector.Stages stages, Plane gray, DetectorOptions opts) {
+        Workspace ws = stages.ws;
+        if (mode == CameraMode.CANNY) {
+            EdgeDetector.suppressedGradient(stages, opts);
+            copy(ws.suppressed(), result);
+            System.arraycopy(ws.directions(), 0, directions, 0, directions.length);
+            if (adaptive) {
+                copy(ws.magnitude(), magnitude);
+                System.arraycopy(stages.histogram, 0, histogram, 0, histogram.length);
+            }
+        } else {
+            stages.runStage(opts.executor, EdgeDetector.Stages.GRADIENT_MAGNITUDE);
+            copy(ws.magnitude(), result);
+        }
+        copy(gray, reference);
+        Arrays.fill(dirty, false);
+        dirtyTiles = tiles();
+        recomputedPixels = (long) ws.width * ws.height;
+        valid = true;
+    }
+
+    private void runTiles(EdgeDetector.Stages stages, Plane gray, DetectorOptions opts) {
+        tileOpts.blur = opts.blur;
+        tileOpts.l1Magnitude = opts.l1Magnitude;
+        tileOpts.metrics = opts.metrics;
+        tileOpts.thresholds = CannyThresholds.MEAN;    // the histogram is kept up to date here instead
+        tileOpts.executor = null;
+
+        int halo = EdgeDetector.halo(mode, opts);
+        int cols = gray.width;
+        int rows = gray.height;
+        recomputedPixels = 0;
+        for (int ty=0; ty<tilesY; ty++) {
+            for (int tx=0; tx<tilesX; tx++) {
+                if (!dirty[ty * tilesX + tx]) continue;
+                int x0 = tx * tileSize;
+                int y0 = ty * tileSize;
+                int x1 = Math.min(x0 + tileSize, cols);
+                int y1 = Math.min(y0 + tileSize, rows);
+
+                // output: the tile and its halo; input: that plus another halo
+                int ox0 = Math.max(0, x0 - halo), ox1 = Math.min(cols, x1 + halo);
+                int oy0 = Math.max(0, y0 - halo), oy1 = Math.min(rows, y1 + halo);
+                int wx0 = Math.max(0, ox0 - halo), wx1 = Math.min(cols, ox1 + halo);
+                int wy0 = Math.max(0, oy0 - halo), wy1 = Math.min(rows, oy1 + halo);
+
+                Workspace tws = tileWorkspace(wx1 - wx0, wy1 - wy0);
+                copy(gray, wx0, wy0, tws.gray(), 0, 0, tws.width, tws.height);
+                EdgeDetector.Stages ts = tws.stages();
+                ts.opts = tileOpts;
+                ts.gradientWeight = stages.gradientWeight;
+                if (mode == CameraMode.CANNY) {
+                    EdgeDetector.suppressedGradient(ts, tileOpts);
+                    if (adaptive) {
+                        updateHistogram(tws.magnitude(), ox0 - wx0, oy0 - wy0, ox0, oy0,
+                                ox1 - ox0, oy1 - oy0);
+                    }
+                    copy(tws.suppressed(), ox0 - wx0, oy0 - wy0, result, ox0, oy0,
+                            ox1 - ox0, oy1 - oy0);
+                    for (int r=0; r<oy1-oy0; r++) {
+                        System.arraycopy(tws.directions(), (oy0 - wy0 + r) * tws.width + ox0 - wx0,
+                                directions, (oy0 + r) * cols + ox0, ox1 - ox0);
+                    }
+                } else {
+                    ts.runStage(null, EdgeDetector.Stages.GRADIENT_MAGNITUDE);
+                    copy(tws.magnitude(), ox0 - wx0, oy0 - wy0, result, ox0, oy0,
+                            ox1 - ox0, oy1 - oy0);
+                }
+                for (int i=0; i<ts.nanos.length; i++) {
+                    stages.nanos[i] += ts.nanos[i];
+                    ts.nanos[i] = 0;
+                }
+                copy(gray, x0, y0, reference, x0, y0, x1 - x0, y1 - y0);
+                recomputedPixels += (long) tws.width * tws.height;
+            }
+        }
+    }
+
+    // Swaps the cached magnitudes of a rectangle for fresh ones, keeping histogram in step
+    private void updateHistogram(Plane fresh, int sx, int sy, int dx, int dy, int w, int h) {
+        int last = histogram.length - 1;
+        for (int r=0; r<h; r++) {
+            int in = fresh.index(sy + r, sx);
+            int out = magnitude.index(dy + r, dx);
+            for (int c=0; c<w; c++) {
+                int old = magnitude.data[out + c];
+                int m = fresh.data[in + c];
+                histogram[old < last ? old : last]--;
+                histogram[m < last ? m : last]++;
+                magnitude.data[out + c] = m;
+            }
+        }
+    }
+
+    // Edge tiles clip to the frame, so only a handful of window sizes ever occur
+    private Workspace tileWorkspace(int width, int height) {
+        for (Workspace ws : tileWorkspaces) {
+            if (ws.fits(width, height)) return ws;
+        }
+        Workspace ws = new Workspace(width, height);
+        tileWorkspaces.add(ws);
+        return ws;
+    }
+
+    private static void copy(Plane src, Plane dst) {
+        copy(src, 0, 0, dst, 0, 0, src.width, src.height);
+    }
+
+    private static void copy(Plane src, int sx, int sy, Plane dst, int dx, int dy, int w, int h) {
+        for (int r=0; r<h; r++) {
+            System.arraycopy(src.data, src.index(sy + r, sx), dst.data, dst.index(dy + r, dx), w);
+        }
+    }
+}
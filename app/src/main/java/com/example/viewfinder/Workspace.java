@@ -0,0 +1,119 @@
+package com.example.viewfinder;
+
+/**
+ * Scratch buffers for one frame size.
+ *
+ * EdgeDetector draws every intermediate plane from here instead of
+ * allocating, so once the first frame has been processed the following
+ * frames at the same resolution allocate nothing. A workspace is not
+ * thread safe; give each processing thread its own (see WorkspacePool).
+ */
+public class Workspace {
+    public final int width;
+    public final int height;
+
+    Plane gray;
+    Plane blurred;
+    Plane magnitude;
+    Plane suppressed;
+    Plane scratch;
+    int[] argb;
+    int[] stack;
+    byte[] directions;
+    IntegralImage integral;
+    EdgeDetector.Stages stages;
+    long allocatedBytes;
+
+    public Workspace(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public boolean fits(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    // Hand back the same workspace while the frame size is unchanged
+    public static Workspace reuse(Workspace ws, int width, int height) {
+        if (ws != null && ws.fits(width, height)) {
+            return ws;
+        }
+        return new Workspace(width, height);
+    }
+
+    // Bytes of pixel buffers created so far; steady at the same size once warmed up
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private Plane plane() {
+        allocatedBytes += 4L * width * height;
+        return new Plane(width, height);
+    }
+
+    Plane gray() {
+        if (gray == null) gray = plane();
+        return gray;
+    }
+
+    Plane blurred() {
+        if (blurred == null) blurred = plane();
+        return blurred;
+    }
+
+    Plane magnitude() {
+        if (magnitude == null) magnitude = plane();
+        return magnitude;
+    }
+
+    Plane suppressed() {
+        if (suppressed == null) suppressed = plane();
+        return suppressed;
+    }
+
+    // Intermediate for separable convolution passes
+    Plane scratch() {
+        if (scratch == null) scratch = plane();
+        return scratch;
+    }
+
+    // Gradient direction codes, one byte per pixel
+    byte[] directions() {
+        if (directions == null) {
+            allocatedBytes += (long) width * height;
+            directions = new byte[width * height];
+        }
+        return directions;
+    }
+
+    // Pixel indices waiting to be visited by Canny's hysteresis flood
+    int[] stack() {
+        if (stack == null) {
+            allocatedBytes += 4L * width * height;
+            stack = new int[width * height];
+        }
+        return stack;
+    }
+
+    // Summed-area table for local Canny thresholds; no squares
+    IntegralImage integral() {
+        if (integral == null) {
+            allocatedBytes += 8L * (width + 1) * (height + 1);
+            integral = new IntegralImage(width, height, false);
+        }
+        return integral;
+    }
+
+    EdgeDetector.Stages stages() {
+        if (stages == null) stages = new EdgeDetector.Stages(this);
+        return stages;
+    }
+
+    public int[] argb() {
+        if (argb == null) {
+            allocatedBytes += 4L * width * height;
+            argb = new int[width * height];
+        }
+        return argb;
+    }
+}
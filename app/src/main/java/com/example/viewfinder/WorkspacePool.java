@@ -0,0 +1,45 @@
+package com.example.viewfinder;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps released workspaces around so several threads (or several frame
+ * sizes) can share buffers without reallocating them every frame. Each
+ * acquired workspace belongs to its caller until released, once.
+ */
+public class WorkspacePool {
+    private final ArrayDeque<Workspace> free = new ArrayDeque<>();
+    private final int maxIdle;
+
+    public WorkspacePool() {
+        this(4);
+    }
+
+    public WorkspacePool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public synchronized Workspace acquire(int width, int height) {
+        for (Workspace ws : free) {
+            if (ws.fits(width, height)) {
+                free.remove(ws);
+                return ws;
+            }
+        }
+        return new Workspace(width, height);
+    }
+
+    public synchronized void release(Workspace ws) {
+        for (Workspace idle : free) {
+            // a second release would let two callers acquire the same workspace
+            if (idle == ws) {
+                throw new IllegalArgumentException("workspace " + ws.width + "x" + ws.height
+                        + " released twice");
+            }
+        }
+        if (free.size() >= maxIdle) {
+            free.pollFirst();   // drop the oldest, likely a stale resolution
+        }
+        free.addLast(ws);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.viewfinder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchDetectorTest {
+    private static final int W = 40, H = 30;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] randomLuma(int seed) {
+        byte[] y = new byte[W * H];
+        new Random(seed).nextBytes(y);
+        return y;
+    }
+
+    private static byte[] expectedPgm(Plane result) throws IOException {
+        byte[] header = ("P5\n" + W + " " + H + "\n255\n").getBytes("US-ASCII");
+        byte[] pgm = Arrays.copyOf(header, header.length + W * H);
+        for (int i = 0; i < W * H; i++) {
+            pgm[header.length + i] = (byte) Math.min(255, result.data[i]);
+        }
+        return pgm;
+    }
+
+    @Test
+    public void pgmFilesMatchDirectDetection() throws Exception {
+        File in = tmp.newFolder("in");
+        File out = tmp.newFolder("out");
+        byte[][] frames = {randomLuma(1), randomLuma(2), randomLuma(3)};
+        for (int i = 0; i < frames.length; i++) {
+            FileOutputStream os = new FileOutputStream(new File(in, "f" + i + ".pgm"));
+            os.write(("P5\n# test frame\n" + W + " " + H + "\n255\n").getBytes("US-ASCII"));
+            os.write(frames[i]);
+            os.close();
+        }
+
+        BatchDetector batch = new BatchDetector(CameraMode.CANNY, BatchDetector.Format.PGM,
+                0, 0, 2, 2, out);
+        BatchDetector.Report report = batch.run(Arrays.asList(in.listFiles()));
+        assertEquals(3, report.frames);
+        assertEquals(3 * W * H, report.bytesRead);
+
+        for (int i = 0; i < frames.length; i++) {
+            Plane gray = new Plane(W, H);
+            for (int p = 0; p < W * H; p++) gray.data[p] = frames[i][p] & 0xFF;
+            Plane result = EdgeDetector.Detect(CameraMode.CANNY, gray, new Workspace(W, H));
+            byte[] written = Files.readAllBytes(new File(out, "f" + i + "_000000.pgm").toPath());
+            assertArrayEquals(expectedPgm(result), written);
+        }
+    }
+
+    @Test
+    public void concatenatedNv21StreamIsSplitIntoFrames() throws Exception {
+        File stream = tmp.newFile("dump.nv21");
+        File out = tmp.newFolder("out");
+        FileOutputStream os = new FileOutputStream(stream);
+        byte[][] frames = new byte[5][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = Arrays.copyOf(randomLuma(10 + i), W * H * 3 / 2);
+            os.write(frames[i]);
+        }
+        os.close();
+
+        BatchDetector batch = new BatchDetector(CameraMode.SOBEL, BatchDetector.Format.NV21,
+                W, H, 3, 3, out);
+        BatchDetector.Report report = batch.run(Arrays.asList(stream));
+        assertEquals(5, report.frames);
+
+        Plane result = EdgeDetector.Detect(CameraMode.SOBEL, frames[4], W, H,
+                new Workspace(W, H), new DetectorOptions());
+        byte[] written = Files.readAllBytes(new File(out, "dump_000004.pgm").toPath());
+        assertArrayEquals(expectedPgm(result), written);
+    }
+
+    @Test
+    public void streamingWritesTheStreamingEdgeMap() throws Exception {
+        File stream = tmp.newFile("dump.y8");
+        File out = tmp.newFolder("out");
+        byte[][] frames = {randomLuma(20), randomLuma(21)};
+        FileOutputStream os = new FileOutputStream(stream);
+        for (byte[] f : frames) os.write(f);
+        os.close();
+
+        new BatchDetector(CameraMode.CANNY, BatchDetector.Format.Y8, W, H, 2, 2, out)
+                .streaming(true).run(Arrays.asList(stream));
+        for (int i = 0; i < frames.length; i++) {
+            byte[] edges = new byte[W * H];
+            new StreamingCanny(W, H).setExact(true).detectGray(frames[i], edges, new DetectorOptions());
+            byte[] written = Files.readAllBytes(new File(out, "dump_00000" + i + ".pgm").toPath());
+            byte[] body = Arrays.copyOfRange(written, written.length - W * H, written.length);
+            assertArrayEquals(edges, body);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyCannyStreams() throws Exception {
+        new BatchDetector(CameraMode.SOBEL, BatchDetector.Format.Y8, W, H, 1, 1, null).streaming(true);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFrameFails() throws Exception {
+        File stream = tmp.newFile("short.y8");
+        FileOutputStream os = new FileOutputStream(stream);
+        os.write(new byte[W * H + 7]);
+        os.close();
+        new BatchDetector(CameraMode.PREWITT, BatchDetector.Format.Y8, W, H, 1, 1, null)
+                .run(Arrays.asList(stream));
+    }
+
+    @Test(timeout = 10000)
+    public void zeroSizedPgmFails() throws Exception {
+        File in = tmp.newFile("empty.pgm");
+        FileOutputStream os = new FileOutputStream(in);
+        os.write("P5 0 5 255\n".getBytes("US-ASCII"));
+        os.close();
+        try {
+            new BatchDetector(CameraMode.CANNY, BatchDetector.Format.PGM, 0, 0, 1, 1, null)
+                    .streaming(true).run(Arrays.asList(in));
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("0x5"));
+        }
+    }
+
+    // A worker that throws must still hand its buffer back, or the reader waits forever
+    @Test(timeout = 10000)
+    public void workerExceptionFailsTheRun() throws Exception {
+        File stream = tmp.newFile("dump.y8");
+        FileOutputStream os = new FileOutputStream(stream);
+        for (int i = 0; i < 4; i++) os.write(randomLuma(30 + i));
+        os.close();
+        StageMetrics failing = new StageMetrics() {
+            @Override
+            public void frameDone(long nanos, long allocatedBytes) {
+                throw new IllegalStateException("boom");
+            }
+        };
+        try {
+            new BatchDetector(CameraMode.SOBEL, BatchDetector.Format.Y8, W, H, 1, 1, null)
+                    .options(new DetectorOptions().metrics(failing))
+                    .run(Arrays.asList(stream));
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getMessage(), e.getMessage().startsWith("dump_000000.pgm"));
+        }
+    }
+}
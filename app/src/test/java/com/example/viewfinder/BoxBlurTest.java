@@ -0,0 +1,78 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BoxBlurTest {
+
+    // Plain window mean with replicated borders
+    private static int mean(Plane src, int r, int c, int size) {
+        int half = size / 2;
+        int sum = 0;
+        for (int dr = -half; dr <= half; dr++) {
+            for (int dc = -half; dc <= half; dc++) {
+                sum += src.getClamped(r + dr, c + dc);
+            }
+        }
+        return (int) Math.round((double) sum / (size * size));
+    }
+
+    @Test
+    public void matchesWindowMean() throws Exception {
+        Random rnd = new Random(6);
+        Plane src = new Plane(37, 23);
+        for (int i = 0; i < src.data.length; i++) {
+            src.data[i] = rnd.nextInt(256);
+        }
+        for (int size : new int[]{1, 3, 5, 9, 41}) {
+            BoxBlur box = new BoxBlur(size);
+            Plane dst = new Plane(37, 23);
+            box.apply(src, dst, new Plane(37, 23));
+            // in strips, as the detector stages run it
+            Plane strips = new Plane(37, 23);
+            Plane tmp = new Plane(37, 23);
+            box.horizontal(src, tmp, 0, 23);
+            for (int r = 0; r < 23; r += 5) {
+                box.vertical(tmp, strips, r, Math.min(23, r + 5));
+            }
+            for (int r = 0; r < 23; r++) {
+                for (int c = 0; c < 37; c++) {
+                    assertEquals(size + " at " + r + "," + c, mean(src, r, c, size), dst.get(r, c));
+                }
+            }
+            assertArrayEquals(dst.data, strips.data);
+        }
+    }
+
+    @Test
+    public void roundingIsExactForEveryReachableSum() throws Exception {
+        for (int size : new int[]{3, 5, 127}) {
+            BoxBlur box = new BoxBlur(size);
+            int area = size * size;
+            for (int sum = 0; sum <= 255 * area; sum += size == 127 ? 7 : 1) {
+                assertEquals(sum + "/" + area, (2 * sum + area) / (2 * area), box.scale(sum));
+            }
+        }
+    }
+
+    @Test
+    public void cannyRunsOnABoxBlur() throws Exception {
+        byte[] nv21 = new byte[48 * 40 * 3 / 2];
+        new Random(7).nextBytes(nv21);
+        DetectorOptions opts = new DetectorOptions().blur(new BoxBlur(3));
+        Plane serial = EdgeDetector.Detect(CameraMode.CANNY, nv21, 48, 40, new Workspace(48, 40), opts);
+        StripExecutor exec = new StripExecutor(3);
+        Plane parallel = EdgeDetector.Detect(CameraMode.CANNY, nv21, 48, 40, new Workspace(48, 40),
+                new DetectorOptions().blur(opts.blur).executor(exec));
+        exec.shutdown();
+        assertArrayEquals(serial.data, parallel.data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void evenSizeIsRejected() throws Exception {
+        new BoxBlur(4);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CallbackBufferRingTest {
+    private static final int W = 16, H = 8, SIZE = W * H * 3 / 2;
+
+    // Stands in for the camera: a queue of buffers waiting to be filled
+    private static class FakeCamera implements CallbackBufferRing.Sink {
+        final ArrayDeque<byte[]> queued = new ArrayDeque<>();
+        final Semaphore returned = new Semaphore(0);
+
+        public synchronized void queue(byte[] buffer) {
+            queued.addLast(buffer);
+            returned.release();
+        }
+
+        synchronized byte[] nextFrame() {
+            return queued.pollFirst();
+        }
+    }
+
+    @Test
+    public void buffersCycleBetweenCameraAndRing() throws Exception {
+        FakeCamera camera = new FakeCamera();
+        CallbackBufferRing ring = new CallbackBufferRing(3, SIZE, camera);
+        ring.start();
+        assertEquals(3, camera.queued.size());
+        camera.returned.drainPermits();
+
+        byte[] a = camera.nextFrame();
+        assertTrue(ring.acquire(a));
+        assertEquals(1, ring.heldCount());
+        assertFalse(ring.acquire(new byte[SIZE]));     // not one of ours
+
+        ring.release(a);
+        ring.release(a);                                // second release is ignored
+        assertEquals(0, ring.heldCount());
+        assertEquals(3, camera.queued.size());
+        assertSame(a, camera.queued.peekLast());
+    }
+
+    @Test
+    public void closedRingKeepsBuffersBack() throws Exception {
+        FakeCamera camera = new FakeCamera();
+        CallbackBufferRing ring = new CallbackBufferRing(2, SIZE, camera);
+        ring.start();
+        byte[] a = camera.nextFrame();
+        ring.acquire(a);
+        ring.close();
+        ring.release(a);
+        assertEquals(1, camera.queued.size());
+    }
+
+    @Test
+    public void closeWaitsForAReleaseAlreadyQueuing() throws Exception {
+        final ArrayDeque<byte[]> given = new ArrayDeque<>();
+        final CountDownLatch queuing = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger inSink = new AtomicInteger();
+        final AtomicInteger requeued = new AtomicInteger();
+        final CallbackBufferRing ring = new CallbackBufferRing(2, SIZE, new CallbackBufferRing.Sink() {
+            public void queue(byte[] buffer) {
+                if (given.size() < 2) {         // start() handing them out
+                    given.addLast(buffer);
+                    return;
+                }
+                // a slow addCallbackBuffer, held until the test lets it go
+                inSink.incrementAndGet();
+                requeued.incrementAndGet();
+                queuing.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inSink.decrementAndGet();
+            }
+        });
+        ring.start();
+        final byte[] a = given.pollFirst();
+        byte[] b = given.pollFirst();
+        ring.acquire(a);
+        ring.acquire(b);
+        given.addLast(a);
+        given.addLast(b);               // from here on every queue() blocks
+
+        Thread releaser = new Thread(new Runnable() {
+            public void run() {
+                ring.release(a);
+            }
+        });
+        releaser.start();
+        assertTrue(queuing.await(5, TimeUnit.SECONDS));
+
+        Thread closer = new Thread(new Runnable() {
+            public void run() {
+                ring.close();
+            }
+        });
+        closer.start();
+        closer.join(200);
+        assertTrue("close() returned while a buffer was going to the camera", closer.isAlive());
+
+        unblock.countDown();
+        closer.join(5000);
+        releaser.join(5000);
+        assertFalse(closer.isAlive());
+        assertEquals(0, inSink.get());
+
+        ring.release(b);                // after close: kept back, never reaches the sink
+        assertEquals(1, requeued.get());
+        assertEquals(0, ring.heldCount());
+    }
+
+    @Test
+    public void processorReturnsEveryBufferWithoutCopying() throws Exception {
+        FakeCamera camera = new FakeCamera();
+        CallbackBufferRing ring = new CallbackBufferRing(4, SIZE, camera);
+        FrameProcessor p = new FrameProcessor(new DetectorOptions(),
+                FrameProcessor.DropPolicy.LATEST_WINS, null);
+        p.start();
+        ring.start();
+        camera.returned.drainPermits();
+
+        IdentityHashMap<byte[], Boolean> seen = new IdentityHashMap<>();
+        int frames = 200;
+        for (int i = 0; i < frames; i++) {
+            byte[] data;
+            while ((data = camera.nextFrame()) == null) {
+                // all buffers busy: wait for one to come back, like a camera would
+                assertTrue(camera.returned.tryAcquire(1, 5, TimeUnit.SECONDS));
+                camera.returned.release();
+            }
+            seen.put(data, true);
+            assertTrue(ring.acquire(data));
+            p.submit(data, W, H, CameraMode.SOBEL, ring);
+        }
+        assertTrue(camera.returned.tryAcquire(frames, 5, TimeUnit.SECONDS));
+        p.stop();
+
+        assertEquals(4, seen.size());       // only ever the ring's own buffers
+        assertEquals(0, ring.heldCount());
+        assertEquals(4, camera.queued.size());
+        assertEquals(frames, p.processedFrames() + p.droppedFrames());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CannyThresholdsTest {
+
+    private static int[] histogram(int... valueCountPairs) {
+        int[] hist = new int[CannyThresholds.BINS];
+        for (int i = 0; i < valueCountPairs.length; i += 2) {
+            hist[valueCountPairs[i]] += valueCountPairs[i + 1];
+        }
+        return hist;
+    }
+
+    @Test
+    public void percentilePutsHighAboveThatShareOfPixels() throws Exception {
+        int[] hist = histogram(0, 60, 10, 20, 100, 15, 400, 5);
+        assertEquals(1, CannyThresholds.percentile(0.6, 0.4).high(hist));
+        assertEquals(11, CannyThresholds.percentile(0.8, 0.4).high(hist));
+        assertEquals(101, CannyThresholds.percentile(0.95, 0.4).high(hist));
+    }
+
+    @Test
+    public void otsuSplitsTwoClusters() throws Exception {
+        int[] hist = histogram(5, 500, 6, 300, 7, 200, 300, 50, 320, 40);
+        int high = CannyThresholds.otsu(0.5).high(hist);
+        assertTrue("high " + high, high > 7 && high <= 300);
+    }
+
+    @Test
+    public void flatFrameHasNoStrongPixels() throws Exception {
+        assertEquals(1, CannyThresholds.otsu(0.5).high(histogram(0, 100)));
+        assertEquals(1, CannyThresholds.percentile(0.9, 0.4).high(new int[CannyThresholds.BINS]));
+    }
+
+    @Test
+    public void adaptiveCannyMatchesAcrossThreadsAndSmooths() throws Exception {
+        Random rnd = new Random(21);
+        byte[] nv21 = new byte[96 * 80 * 3 / 2];
+        rnd.nextBytes(nv21);
+        CannyThresholds t = CannyThresholds.percentile(0.85, 0.4);
+
+        int[] serial = EdgeDetector.Detect(CameraMode.CANNY, nv21, 96, 80, new Workspace(96, 80),
+                new DetectorOptions().thresholds(t)).data.clone();
+        StripExecutor exec = new StripExecutor(3);
+        Plane parallel = EdgeDetector.Detect(CameraMode.CANNY, nv21, 96, 80, new Workspace(96, 80),
+                new DetectorOptions().thresholds(t).executor(exec));
+        exec.shutdown();
+        assertArrayEquals(serial, parallel.data);
+
+        // a dark frame after a busy one: the smoothed threshold moves only part of the way
+        Workspace ws = new Workspace(96, 80);
+        DetectorOptions smooth = new DetectorOptions().thresholds(t.smoothed(0.75));
+        EdgeDetector.Detect(CameraMode.CANNY, nv21, 96, 80, ws, smooth);
+        double busy = ws.stages().smoothedHigh;
+        byte[] dim = nv21.clone();
+        for (int i = 0; i < 96 * 80; i++) dim[i] = (byte) (16 + (dim[i] & 0x0F));
+        EdgeDetector.Detect(CameraMode.CANNY, dim, 96, 80, ws, smooth);
+        int dimHigh = t.high(ws.stages().histogram);
+        assertTrue(dimHigh < busy);
+        assertEquals(0.75 * busy + 0.25 * dimHigh, ws.stages().smoothedHigh, 1e-9);
+    }
+
+    // Strong edges on the left, the same edges at a twentyfifth of the contrast on the right
+    private static Plane unevenlyLit() {
+        Plane suppressed = new Plane(80, 40);
+        for (int r = 0; r < 40; r++) {
+            for (int c = 0; c < 80; c++) {
+                if (c % 8 == 3) suppressed.set(r, c, c < 40 ? 200 : 8);
+                else if ((r * 7 + c) % 11 == 0) suppressed.set(r, c, 1);      // noise
+            }
+        }
+        return suppressed;
+    }
+
+    private static int kept(Plane img, int left, int right) {
+        int n = 0;
+        for (int r = 0; r < img.height; r++) {
+            for (int c = left; c < right; c++) {
+                if (img.get(r, c) > 0) n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void localThresholdsKeepEdgesInTheDarkHalf() throws Exception {
+        Plane global = unevenlyLit();
+        EdgeDetector.filterSmallValues(global, new int[80 * 40]);
+        assertEquals(0, kept(global, 40, 80));
+
+        Plane local = unevenlyLit();
+        EdgeDetector.localHysteresis(local, new IntegralImage(80, 40, false),
+                CannyThresholds.local(6, 0.5), new int[80 * 40]);
+        assertEquals(kept(global, 0, 40), kept(local, 0, 40));
+        assertEquals(5 * 40, kept(local, 40, 80));
+        for (int r = 0; r < 40; r++) {
+            assertEquals(0, local.get(r, 62));     // still no noise
+        }
+    }
+
+    @Test
+    public void localWindowOverTheWholeFrameIsTheMeanRule() throws Exception {
+        byte[] nv21 = new byte[64 * 48 * 3 / 2];
+        new Random(4).nextBytes(nv21);
+        Plane mean = EdgeDetector.Detect(CameraMode.CANNY, nv21, 64, 48, new Workspace(64, 48),
+                new DetectorOptions());
+        Plane local = EdgeDetector.Detect(CameraMode.CANNY, nv21, 64, 48, new Workspace(64, 48),
+                new DetectorOptions().thresholds(CannyThresholds.local(64, 0)));
+        assertArrayEquals(mean.data, local.data);
+    }
+}
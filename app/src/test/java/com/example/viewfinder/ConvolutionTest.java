@@ -0,0 +1,82 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ConvolutionTest {
+
+    private static Plane randomPlane(int width, int height, long seed) {
+        Random rnd = new Random(seed);
+        Plane p = new Plane(width, height);
+        for (int i = 0; i < p.data.length; i++) {
+            p.data[i] = rnd.nextInt(256);
+        }
+        return p;
+    }
+
+    // The original per-tap clamped loop
+    private static Plane naive(Plane src, int[][] k) {
+        Plane dst = new Plane(src.width, src.height);
+        int hr = k.length / 2, hc = k[0].length / 2;
+        for (int r = 0; r < src.height; r++) {
+            for (int c = 0; c < src.width; c++) {
+                int sum = 0;
+                for (int rk = 0; rk < k.length; rk++) {
+                    for (int ck = 0; ck < k[0].length; ck++) {
+                        sum += k[rk][ck] * src.getClamped(r + rk - hr, c + ck - hc);
+                    }
+                }
+                dst.set(r, c, Math.max(0, sum));
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    public void sobelKernelsFactor() throws Exception {
+        Kernel k = Kernel.of(EdgeDetector.SobelKernel(SobelOp.X_3x3));
+        assertTrue(k.isSeparable());
+        assertArrayEquals(new int[]{1, 2, 1}, k.col);
+        assertArrayEquals(new int[]{1, 0, -1}, k.row);
+        assertTrue(Kernel.of(EdgeDetector.SobelKernel(SobelOp.Y_5x5)).isSeparable());
+        assertFalse(Kernel.of(new int[][]{{1, 2, 1}, {2, 1, 2}, {1, 2, 1}}).isSeparable());
+    }
+
+    @Test
+    public void separableMatchesNaive() throws Exception {
+        int[][][] kernels = {
+                EdgeDetector.SobelKernel(SobelOp.X_3x3),
+                EdgeDetector.SobelKernel(SobelOp.Y_3x3),
+                EdgeDetector.SobelKernel(SobelOp.X_5x5),
+                EdgeDetector.PrewittKernel(PrewittOp.Y_3x3),
+                {{0, 1, 0}, {1, -4, 1}, {0, 1, 0}},     // not separable
+        };
+        int[][] sizes = {{37, 23}, {3, 5}, {1, 1}, {2, 9}};
+        for (int[][] k : kernels) {
+            for (int[] size : sizes) {
+                Plane src = randomPlane(size[0], size[1], 42);
+                Plane dst = new Plane(src.width, src.height);
+                Convolution.apply(src, Kernel.of(k), dst, new Plane(src.width, src.height), true);
+                assertArrayEquals(naive(src, k).data, dst.data);
+            }
+        }
+    }
+
+    @Test
+    public void rowRangesCompose() throws Exception {
+        Plane src = randomPlane(40, 30, 7);
+        Kernel k = Kernel.of(EdgeDetector.SobelKernel(SobelOp.Y_5x5));
+        Plane whole = new Plane(40, 30);
+        Convolution.apply(src, k, whole, new Plane(40, 30), true);
+
+        Plane strips = new Plane(40, 30);
+        Plane tmp = new Plane(40, 30);
+        for (int r = 0; r < 30; r += 7) {
+            Convolution.apply(src, k, strips, tmp, true, r, Math.min(30, r + 7));
+        }
+        assertArrayEquals(whole.data, strips.data);
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeDetectorTest {
+    private static final int W = 64, H = 48;
+
+    @Test
+    public void nv21IngestMatchesGrayPlane() throws Exception {
+        Random rnd = new Random(5);
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        rnd.nextBytes(nv21);
+
+        // what the old decodeYUV420SPGrayscale produced
+        Plane gray = new Plane(W, H);
+        for (int i = 0; i < W * H; i++) {
+            int y = Math.max(0, (nv21[i] & 0xFF) - 16);
+            gray.data[i] = 0xFF000000 | y * 0x010101;
+        }
+
+        for (CameraMode mode : new CameraMode[]{CameraMode.SOBEL, CameraMode.PREWITT, CameraMode.CANNY}) {
+            int[] expected = EdgeDetector.Detect(mode, gray, new Workspace(W, H)).data.clone();
+            Plane actual = EdgeDetector.Detect(mode, nv21, W, H, new Workspace(W, H), new DetectorOptions());
+            assertArrayEquals(mode.toString(), expected, actual.data);
+        }
+    }
+
+    @Test
+    public void planeOfAnotherSizeThanTheWorkspaceIsRejected() throws Exception {
+        // a narrower workspace would index past its planes, a shorter one quietly crop
+        Workspace[] wrong = {new Workspace(W / 2, H), new Workspace(W, H / 2)};
+        for (Workspace ws : wrong) {
+            String size = ws.width + "x" + ws.height;
+            Plane gray = new Plane(W, H);
+            try {
+                EdgeDetector.Detect(CameraMode.CANNY, gray, ws, new DetectorOptions());
+                fail("Detect " + size);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                EdgeDetector.SobelMagnitude(gray, ws);
+                fail("SobelMagnitude " + size);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                EdgeDetector.PrewittMagnitude(gray, ws);
+                fail("PrewittMagnitude " + size);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                EdgeDetector.CannyEdges(gray, ws);
+                fail("CannyEdges " + size);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void hysteresisFollowsWeakChainsToTheBorder() throws Exception {
+        // top half strong; a weak chain down the last column touches it, another weak run does not
+        Plane img = new Plane(10, 10);
+        for (int r = 0; r < 5; r++) {
+            for (int c = 0; c < 10; c++) img.set(r, c, 200);
+        }
+        for (int r = 5; r < 10; r++) img.set(r, 9, 50);
+        for (int c = 0; c < 7; c++) img.set(7, c, 50);
+        // mean 106: lower threshold 31.8, upper 84.8, so 50 is weak
+
+        EdgeDetector.filterSmallValues(img, new int[100]);
+        for (int r = 5; r < 10; r++) {
+            assertEquals("chain row " + r, 50, img.get(r, 9));
+        }
+        for (int c = 0; c < 7; c++) {
+            assertEquals("isolated col " + c, 0, img.get(7, c));
+        }
+        assertEquals(200, img.get(4, 0));
+    }
+
+    @Test
+    public void directionBinsMatchTheGradientAngle() throws Exception {
+        Random rnd = new Random(13);
+        for (int i = 0; i < 100000; i++) {
+            int gx = rnd.nextInt(2041) - 1020;
+            int gy = rnd.nextInt(2041) - 1020;
+            // gradient along (row, col) = (gy, gx), folded into [0, 180)
+            double deg = Math.toDegrees(Math.atan2(gy, gx));
+            if (deg < 0) deg += 180;
+            double fromBoundary = Math.abs(((deg - 22.5) % 45 + 45) % 45);
+            if (Math.min(fromBoundary, 45 - fromBoundary) < 0.01) continue;   // too close to call
+
+            int expected;
+            if (deg < 22.5 || deg >= 157.5) expected = Gradient.HORIZONTAL;  // left/right neighbours
+            else if (deg < 67.5) expected = Gradient.DIAGONAL_DOWN;         // (1, 1) diagonal
+            else if (deg < 112.5) expected = Gradient.VERTICAL;             // up/down neighbours
+            else expected = Gradient.DIAGONAL_UP;                           // (1, -1) diagonal
+            assertEquals(gx + "," + gy, expected, Gradient.directionCode(gx, gy));
+        }
+    }
+
+    @Test
+    public void suppressionStepsMatchClampedNeighbours() throws Exception {
+        Random rnd = new Random(21);
+        Plane mag = new Plane(W, H);
+        byte[] dir = new byte[W * H];
+        for (int i = 0; i < W * H; i++) {
+            mag.data[i] = rnd.nextInt(8);   // plenty of ties
+            dir[i] = (byte) rnd.nextInt(4);
+        }
+        int[] dr = {1, 1, 0, 1};
+        int[] dc = {0, -1, 1, 1};
+
+        Plane out = new Plane(W, H);
+        EdgeDetector.suppressNonMaximum(mag, dir, EdgeDetector.neighbourSteps(W), out, 0, H);
+        for (int r = 0; r < H; r++) {
+            for (int c = 0; c < W; c++) {
+                int d = dir[r * W + c];
+                int g = mag.get(r, c);
+                boolean keep = g >= mag.getClamped(r + dr[d], c + dc[d])
+                        && g >= mag.getClamped(r - dr[d], c - dc[d]);
+                assertEquals(r + "," + c, keep ? g : 0, out.get(r, c));
+            }
+        }
+    }
+
+    @Test
+    public void flatPlanesMatchThe2DArrayVersion() throws Exception {
+        // Square, so the old column clamp (against the row count) lands on the right
+        // pixel, and never brighter to the right or below, so clamping Gx and Gy at
+        // zero as the old ApplyKernel did changes nothing
+        int n = 24;
+        Random rnd = new Random(34);
+        int[] down = new int[n], across = new int[n];
+        for (int k = 1; k < n; k++) {
+            down[k] = down[k - 1] + rnd.nextInt(5);
+            across[k] = across[k - 1] + rnd.nextInt(5);
+        }
+        int[][] ramp = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                ramp[r][c] = gray(250 - down[r] - across[c] - r * c / 16);
+            }
+        }
+        assertArrayEquals(Legacy.flatten(Legacy.sobel(ramp)),
+                EdgeDetector.Detect(CameraMode.SOBEL, Plane.fromRows(ramp), new Workspace(n, n)).data);
+
+        // A diagonal step: every gradient lies along the one diagonal the old direction
+        // code ever picked, and the suppressed ridge is all strong, so the old one-pass
+        // hysteresis has no weak pixels to get wrong
+        int[][] step = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                step[r][c] = gray(r + c < n ? 200 : 40);
+            }
+        }
+        DetectorOptions original = new DetectorOptions().blur(null);
+        assertArrayEquals(Legacy.flatten(Legacy.canny(step)),
+                EdgeDetector.Detect(CameraMode.CANNY, Plane.fromRows(step), new Workspace(n, n), original).data);
+    }
+
+    private static int gray(int y) {
+        return 0xFF000000 | y * 0x010101;
+    }
+
+    // GetSobelImage and GetCannyImage as they were on int[][], minus the Bitmap
+    private static class Legacy {
+        static final int[][] SOBEL_X = {{1, 0, -1}, {2, 0, -2}, {1, 0, -1}};
+        static final int[][] SOBEL_Y = {{1, 2, 1}, {0, 0, 0}, {-1, -2, -1}};
+
+        static int[][] sobel(int[][] grayscale) {
+            grayscale = toGrayValue(grayscale);
+            return magnitude(applyKernel(grayscale, SOBEL_X), applyKernel(grayscale, SOBEL_Y));
+        }
+
+        static int[][] canny(int[][] grayscale) {
+            grayscale = toGrayValue(grayscale);
+            int[][] filtered = applyKernel(grayscale, EdgeDetector.GAUSSIAN);
+            int[][] gx = applyKernel(filtered, SOBEL_X);
+            int[][] gy = applyKernel(filtered, SOBEL_Y);
+            int[][] img = suppressNonMaximum(magnitude(gx, gy), gradientDirection(gx, gy));
+            return filterSmallValues(img);
+        }
+
+        static int[] flatten(int[][] image) {
+            int cols = image[0].length;
+            int[] flat = new int[image.length * cols];
+            for (int r = 0; r < image.length; r++) {
+                System.arraycopy(image[r], 0, flat, r * cols, cols);
+            }
+            return flat;
+        }
+
+        static int clamped(int[][] image, int r, int c) {
+            if (r < 0) r = 0;
+            if (r >= image.length) r = image.length - 1;
+            if (c < 0) c = 0;
+            if (c >= image[0].length) c = image.length - 1;
+            return image[r][c];
+        }
+
+        static int[][] applyKernel(int[][] image, int[][] kernel) {
+            double[][] k = new double[kernel.length][kernel[0].length];
+            for (int r = 0; r < k.length; r++) {
+                for (int c = 0; c < k[0].length; c++) k[r][c] = kernel[r][c];
+            }
+            return applyKernel(image, k);
+        }
+
+        static int[][] applyKernel(int[][] image, double[][] kernel) {
+            int rows = image.length, cols = image[0].length;
+            int half = kernel.length / 2;
+            int[][] out = new int[rows][cols];
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    double sum = 0;
+                    for (int rk = 0; rk < kernel.length; rk++) {
+                        for (int ck = 0; ck < kernel[0].length; ck++) {
+                            sum += clamped(image, r + rk - half, c + ck - half) * kernel[rk][ck];
+                        }
+                    }
+                    out[r][c] = (int) Math.max(0, sum);
+                }
+            }
+            return out;
+        }
+
+        static int[][] toGrayValue(int[][] bits) {
+            int[][] values = new int[bits.length][bits[0].length];
+            for (int r = 0; r < bits.length; r++) {
+                for (int c = 0; c < bits[0].length; c++) values[r][c] = bits[r][c] & 0xFF;
+            }
+            return values;
+        }
+
+        static int[][] magnitude(int[][] sx, int[][] sy) {
+            int[][] mag = new int[sx.length][sx[0].length];
+            for (int r = 0; r < sx.length; r++) {
+                for (int c = 0; c < sx[0].length; c++) {
+                    mag[r][c] = (int) Math.round(Math.sqrt(Math.pow(sx[r][c], 2) + Math.pow(sy[r][c], 2)));
+                }
+            }
+            return mag;
+        }
+
+        // The radian-vs-degree bin search; it always ended on the last bin
+        static int[][] gradientDirection(int[][] gx, int[][] gy) {
+            int[] bins = {0, 45, 90, 135};
+            int[][] values = new int[gx.length][gx[0].length];
+            for (int r = 0; r < gx.length; r++) {
+                for (int c = 0; c < gx[0].length; c++) {
+                    double dir = Math.atan2(gx[r][c], gy[r][c]);
+                    double diff = 360.;
+                    for (int bin : bins) {
+                        if (dir - bin < diff) {
+                            diff = dir - bin;
+                            values[r][c] = bin;
+                        }
+                    }
+                }
+            }
+            return values;
+        }
+
+        static int[][] suppressNonMaximum(int[][] gradients, int[][] directions) {
+            int rows = gradients.length, cols = gradients[0].length;
+            int[][] values = new int[rows][cols];
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int dr, dc;
+                    switch (directions[r][c]) {
+                        case 0: dr = 1; dc = 0; break;
+                        case 45: dr = 1; dc = -1; break;
+                        case 90: dr = 0; dc = -1; break;
+                        default: dr = -1; dc = -1; break;
+                    }
+                    int g = gradients[r][c];
+                    int g1 = gradients[Math.max(Math.min(rows - 1, r + dr), 0)][Math.max(Math.min(cols - 1, c + dc), 0)];
+                    int g2 = gradients[Math.max(Math.min(rows - 1, r - dr), 0)][Math.max(Math.min(cols - 1, c - dc), 0)];
+                    values[r][c] = g < g1 || g < g2 ? 0 : g;
+                }
+            }
+            return values;
+        }
+
+        static int[][] filterSmallValues(int[][] img) {
+            int rows = img.length, cols = img[0].length;
+            double sum = 0;
+            for (int[] row : img) {
+                for (int v : row) sum += v;
+            }
+            double avg = sum / (rows * cols);
+            double lower = 0.3 * avg, upper = 0.8 * avg;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    if (img[r][c] < lower) {
+                        img[r][c] = 0;
+                    } else if (img[r][c] < upper) {
+                        boolean strong = false;
+                        for (int x = Math.max(0, r - 1); x < Math.min(rows - 1, r + 1); x++) {
+                            for (int y = Math.max(0, c - 1); y < Math.min(cols - 1, c + 1); y++) {
+                                if (img[x][y] >= upper) strong = true;
+                            }
+                        }
+                        if (!strong) img[r][c] = 0;
+                    }
+                }
+            }
+            return img;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeListTest {
+    static final int W = 72, H = 56;
+
+    static byte[] frame(long seed) {
+        Random rnd = new Random(seed);
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        for (int r = 0; r < H; r++) {
+            for (int c = 0; c < W; c++) {
+                nv21[r * W + c] = (byte) (20 + ((c / 9 + r / 7) % 2) * 120 + rnd.nextInt(30));
+            }
+        }
+        return nv21;
+    }
+
+    @Test
+    public void listHoldsExactlyTheEdgePixels() throws Exception {
+        for (CannyThresholds t : new CannyThresholds[]{CannyThresholds.MEAN,
+                CannyThresholds.otsu(0.5), CannyThresholds.local(8, 0.5)}) {
+            EdgeList list = new EdgeList(true);
+            Workspace ws = new Workspace(W, H);
+            Plane dense = EdgeDetector.Detect(CameraMode.CANNY, frame(1), W, H, ws,
+                    new DetectorOptions().thresholds(t), new EdgeOutputs().list(list));
+            int i = 0;
+            for (int p = 0; p < W * H; p++) {
+                if (dense.data[p] == 0) continue;
+                assertEquals(t.method + " edge " + i, p, list.position(i));
+                assertEquals(p / W, list.row(i));
+                assertEquals(p % W, list.column(i));
+                assertEquals(dense.data[p], list.magnitude(i));
+                assertEquals(ws.directions()[p], list.direction(i));
+                i++;
+            }
+            assertEquals(i, list.size());
+            assertTrue(list.size() > 0 && list.size() < W * H / 4);
+        }
+    }
+
+    @Test
+    public void reusedListStartsOverAndGrows() throws Exception {
+        EdgeList list = new EdgeList();
+        EdgeOutputs out = new EdgeOutputs().list(list);
+        byte[] noise = new byte[W * H * 3 / 2];
+        new Random(2).nextBytes(noise);
+        Plane busy = EdgeDetector.Detect(CameraMode.CANNY, noise, W, H, new Workspace(W, H),
+                new DetectorOptions(), out);
+        int edges = 0;
+        for (int v : busy.data) if (v > 0) edges++;
+        assertTrue(edges > 1024);   // past the first array
+        assertEquals(edges, list.size());
+
+        EdgeDetector.Detect(CameraMode.CANNY, new byte[W * H * 3 / 2], W, H, new Workspace(W, H),
+                new DetectorOptions(), out);
+        assertEquals(0, list.size());
+    }
+
+    @Test
+    public void threadsShareOptionsButNotOutputs() throws Exception {
+        final DetectorOptions shared = new DetectorOptions();
+        final String[] failure = new String[1];
+        Thread[] workers = new Thread[2];
+        for (int t = 0; t < workers.length; t++) {
+            final byte[] nv21 = frame(20 + t);
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    Workspace ws = new Workspace(W, H);
+                    EdgeOutputs out = new EdgeOutputs().list(new EdgeList());
+                    for (int i = 0; i < 50; i++) {
+                        Plane dense = EdgeDetector.Detect(CameraMode.CANNY, nv21, W, H, ws, shared, out);
+                        int edges = 0;
+                        for (int v : dense.data) if (v > 0) edges++;
+                        if (edges != out.list.size()) {
+                            failure[0] = edges + " edges, " + out.list.size() + " listed";
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+        assertNull(failure[0]);
+    }
+
+    @Test
+    public void paintTouchesOnlyEdges() throws Exception {
+        EdgeList list = new EdgeList();
+        Plane dense = EdgeDetector.Detect(CameraMode.CANNY, frame(3), W, H, new Workspace(W, H),
+                new DetectorOptions(), new EdgeOutputs().list(list));
+        int[] argb = new int[W * H];
+        list.paint(argb, 0xFFFF0000);
+        for (int p = 0; p < W * H; p++) {
+            assertEquals(dense.data[p] > 0 ? 0xFFFF0000 : 0, argb[p]);
+        }
+    }
+
+    @Test
+    public void temporalAndStreamingFillItToo() throws Exception {
+        EdgeList want = new EdgeList(true);
+        EdgeList got = new EdgeList(true);
+        TemporalDetector temporal = new TemporalDetector(16, 0, 0.5);
+        Workspace ws = new Workspace(W, H);
+        byte[] nv21 = frame(4);
+        for (int i = 0; i < 3; i++) {
+            for (int r = 20; r < 30; r++) {
+                for (int c = 10 + 8 * i; c < 20 + 8 * i; c++) nv21[r * W + c] = (byte) 230;
+            }
+            EdgeDetector.Detect(CameraMode.CANNY, nv21, W, H, new Workspace(W, H),
+                    new DetectorOptions(), new EdgeOutputs().list(want));
+            temporal.detect(CameraMode.CANNY, nv21, W, H, null, ws, new DetectorOptions(),
+                    new EdgeOutputs().list(got));
+            assertEquals(want.size(), got.size());
+            for (int k = 0; k < want.size(); k++) {
+                assertEquals(want.position(k), got.position(k));
+                assertEquals(want.magnitude(k), got.magnitude(k));
+                assertEquals("frame " + i + " edge " + k, want.direction(k), got.direction(k));
+            }
+        }
+
+        EdgeList positions = new EdgeList();
+        new StreamingCanny(W, H).setExact(true).detect(nv21, new byte[W * H],
+                new DetectorOptions(), new EdgeOutputs().list(positions));
+        assertEquals(want.size(), positions.size());
+        for (int k = 0; k < want.size(); k++) {
+            assertEquals(want.position(k), positions.position(k));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void streamingHasNoValues() throws Exception {
+        new StreamingCanny(W, H).detect(frame(5), new byte[W * H],
+                new DetectorOptions(), new EdgeOutputs().list(new EdgeList(true)));
+    }
+}
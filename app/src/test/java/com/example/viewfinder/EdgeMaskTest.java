@@ -0,0 +1,155 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeMaskTest {
+
+    private static boolean[][] random(Random rnd, int w, int h, double density) {
+        boolean[][] px = new boolean[h][w];
+        for (int r = 0; r < h; r++) {
+            for (int c = 0; c < w; c++) {
+                px[r][c] = rnd.nextDouble() < density;
+            }
+        }
+        return px;
+    }
+
+    private static EdgeMask mask(boolean[][] px) {
+        EdgeMask m = new EdgeMask(px[0].length, px.length);
+        for (int r = 0; r < px.length; r++) {
+            for (int c = 0; c < px[0].length; c++) {
+                if (px[r][c]) m.set(r, c);
+            }
+        }
+        return m;
+    }
+
+    // 3x3 neighbourhood, outside pixels as given
+    private static boolean neighbourhood(boolean[][] px, int r, int c, boolean dilate) {
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                int y = r + dr, x = c + dc;
+                boolean v = y < 0 || y >= px.length || x < 0 || x >= px[0].length ? !dilate : px[y][x];
+                if (dilate && v) return true;
+                if (!dilate && !v) return false;
+            }
+        }
+        return !dilate;
+    }
+
+    private static void assertTailClear(EdgeMask m) {
+        int used = m.width() & 63;
+        if (used == 0) return;
+        for (int r = 0; r < m.height(); r++) {
+            assertEquals("row " + r, 0, m.word(r, m.words() - 1) >>> used);
+        }
+    }
+
+    @Test
+    public void morphologyMatchesPixelLoops() throws Exception {
+        Random rnd = new Random(11);
+        for (int w : new int[]{1, 7, 63, 64, 65, 130, 192}) {
+            for (double density : new double[]{0.1, 0.5, 0.9}) {
+                boolean[][] px = random(rnd, w, 9, density);
+                EdgeMask m = mask(px);
+                EdgeMask grown = m.dilate(new EdgeMask());
+                EdgeMask shrunk = m.erode(new EdgeMask());
+                for (int r = 0; r < 9; r++) {
+                    for (int c = 0; c < w; c++) {
+                        String at = w + " wide, " + density + ", at " + r + "," + c;
+                        assertEquals(at, neighbourhood(px, r, c, true), grown.get(r, c));
+                        assertEquals(at, neighbourhood(px, r, c, false), shrunk.get(r, c));
+                    }
+                }
+                assertTailClear(grown);
+                assertTailClear(shrunk);
+            }
+        }
+    }
+
+    @Test
+    public void setOperationsAndCounts() throws Exception {
+        Random rnd = new Random(12);
+        boolean[][] a = random(rnd, 100, 13, 0.3);
+        boolean[][] b = random(rnd, 100, 13, 0.3);
+        EdgeMask ma = mask(a), mb = mask(b);
+        int and = 0, or = 0, xor = 0, andNot = 0, box = 0;
+        for (int r = 0; r < 13; r++) {
+            for (int c = 0; c < 100; c++) {
+                if (a[r][c] && b[r][c]) and++;
+                if (a[r][c] || b[r][c]) or++;
+                if (a[r][c] != b[r][c]) xor++;
+                if (a[r][c] && !b[r][c]) andNot++;
+                if (a[r][c] && r >= 2 && r < 11 && c >= 5 && c < 70) box++;
+            }
+        }
+        assertEquals(xor, ma.differences(mb));
+        assertEquals(box, ma.count(2, 5, 11, 70));
+        assertEquals(and, new EdgeMask().copyFrom(ma).and(mb).count());
+        assertEquals(or, new EdgeMask().copyFrom(ma).or(mb).count());
+        assertEquals(xor, new EdgeMask().copyFrom(ma).xor(mb).count());
+        assertEquals(andNot, new EdgeMask().copyFrom(ma).andNot(mb).count());
+
+        int[] tiles = new int[4 * 2];
+        ma.tileCounts(32, tiles);
+        int total = 0;
+        for (int t : tiles) total += t;
+        assertEquals(ma.count(), total);
+        assertEquals(ma.count(0, 96, 13, 100), tiles[3]);
+    }
+
+    @Test
+    public void cannyFillsTheMask() throws Exception {
+        byte[] frame = EdgeListTest.frame(13);
+        int w = EdgeListTest.W, h = EdgeListTest.H;
+        EdgeMask mask = new EdgeMask();
+        Plane dense = EdgeDetector.Detect(CameraMode.CANNY, frame, w, h, new Workspace(w, h),
+                new DetectorOptions(), new EdgeOutputs().mask(mask));
+        assertEquals(0, mask.differences(new EdgeMask().from(dense, 1)));
+        assertTrue(mask.count() > 0);
+
+        EdgeMask streamed = new EdgeMask();
+        new StreamingCanny(w, h).setExact(true).detect(frame, new byte[w * h],
+                new DetectorOptions(), new EdgeOutputs().mask(streamed));
+        assertEquals(0, mask.differences(streamed));
+
+        int[] argb = new int[w * h];
+        mask.paint(argb, -1);
+        for (int p = 0; p < w * h; p++) {
+            assertEquals(dense.data[p] > 0, argb[p] == -1);
+        }
+    }
+
+    @Test
+    public void pixelsOutsideTheFrameAreRejected() throws Exception {
+        // 70 wide: column 70 would still fit in the row's second word
+        EdgeMask m = new EdgeMask(70, 3);
+        int[][] outside = {{0, 70}, {3, 0}, {-1, 5}, {1, -1}};
+        for (int[] p : outside) {
+            try {
+                m.set(p[0], p[1]);
+                fail("set " + p[0] + "," + p[1]);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+            try {
+                m.get(p[0], p[1]);
+                fail("get " + p[0] + "," + p[1]);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+            try {
+                m.clear(p[0], p[1]);
+                fail("clear " + p[0] + "," + p[1]);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        assertEquals(0, m.count());
+        m.set(2, 69);
+        assertTrue(m.get(2, 69));
+        m.clear(2, 69);
+        assertEquals(0, m.count());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeRunsTest {
+    private static final int W = EdgeListTest.W, H = EdgeListTest.H;
+
+    private static void assertRunsCover(Plane dense, EdgeRuns runs) {
+        int[] argb = new int[W * H];
+        runs.paint(argb, -1);
+        int edges = 0;
+        for (int p = 0; p < W * H; p++) {
+            assertEquals("pixel " + p, dense.data[p] > 0, argb[p] == -1);
+            if (dense.data[p] > 0) edges++;
+        }
+        assertEquals(edges, runs.pixels());
+        for (int r = 0; r < H; r++) {
+            int end = -1;
+            for (int i = runs.firstRun(r); i < runs.endRun(r); i++) {
+                assertTrue("runs of row " + r + " overlap or touch", runs.start(i) > end);
+                assertTrue(runs.length(i) > 0);
+                end = runs.start(i) + runs.length(i);
+                assertTrue(end <= W);
+            }
+        }
+        assertEquals(runs.runs(), runs.endRun(H - 1));
+    }
+
+    @Test
+    public void runsCoverExactlyTheEdgePixels() throws Exception {
+        EdgeRuns runs = new EdgeRuns();
+        EdgeList list = new EdgeList();
+        EdgeOutputs out = new EdgeOutputs().runs(runs).list(list);
+        Plane dense = EdgeDetector.Detect(CameraMode.CANNY, EdgeListTest.frame(6), W, H,
+                new Workspace(W, H), new DetectorOptions(), out);
+        assertRunsCover(dense, runs);
+        assertEquals(list.size(), runs.pixels());
+        assertTrue(runs.runs() < runs.pixels());
+
+        // many short runs, and reuse
+        byte[] noise = new byte[W * H * 3 / 2];
+        new Random(7).nextBytes(noise);
+        dense = EdgeDetector.Detect(CameraMode.CANNY, noise, W, H, new Workspace(W, H),
+                new DetectorOptions(), out);
+        assertRunsCover(dense, runs);
+    }
+
+    @Test
+    public void streamingGivesTheSameRuns() throws Exception {
+        byte[] frame = EdgeListTest.frame(8);
+        EdgeRuns want = new EdgeRuns();
+        EdgeRuns got = new EdgeRuns();
+        EdgeDetector.Detect(CameraMode.CANNY, frame, W, H, new Workspace(W, H),
+                new DetectorOptions(), new EdgeOutputs().runs(want));
+        new StreamingCanny(W, H).setExact(true).detect(frame, new byte[W * H],
+                new DetectorOptions(), new EdgeOutputs().runs(got));
+        assertEquals(want.runs(), got.runs());
+        for (int r = 0; r < H; r++) {
+            assertEquals(want.firstRun(r), got.firstRun(r));
+        }
+        for (int i = 0; i < want.runs(); i++) {
+            assertEquals(want.start(i), got.start(i));
+            assertEquals(want.length(i), got.length(i));
+        }
+    }
+}
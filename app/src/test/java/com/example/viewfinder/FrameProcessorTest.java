@@ -0,0 +1,108 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameProcessorTest {
+    private static final int W = 32, H = 24;
+
+    // Holds the worker inside the listener until released, so frames pile up behind it
+    private static class GatedListener implements FrameProcessor.Listener {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final Semaphore processed = new Semaphore(0);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        public void onFrameProcessed(FrameProcessor processor) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            processed.release();
+        }
+
+        public void onFrameFailed(FrameProcessor processor, RuntimeException e) {
+        }
+    }
+
+    private static class CountingListener implements FrameProcessor.Listener {
+        final Semaphore processed = new Semaphore(0);
+        final Semaphore failed = new Semaphore(0);
+
+        public void onFrameProcessed(FrameProcessor processor) {
+            processed.release();
+        }
+
+        public void onFrameFailed(FrameProcessor processor, RuntimeException e) {
+            failed.release();
+        }
+    }
+
+    private static long runBacklog(FrameProcessor.DropPolicy policy, long[] dropped) throws Exception {
+        GatedListener listener = new GatedListener();
+        FrameProcessor p = new FrameProcessor(new DetectorOptions(), policy, listener);
+        p.start();
+        byte[] frame = new byte[W * H * 3 / 2];
+
+        assertTrue(p.submit(frame, W, H, CameraMode.SOBEL));            // frame 1
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        p.submit(frame, W, H, CameraMode.SOBEL);                         // frame 2
+        p.submit(frame, W, H, CameraMode.PREWITT);                       // frame 3
+        p.submit(frame, W, H, CameraMode.CANNY);                         // frame 4
+        listener.gate.countDown();
+        assertTrue(listener.processed.tryAcquire(2, 5, TimeUnit.SECONDS));
+
+        FrameProcessor.Result r = p.acquireLatest();
+        dropped[0] = p.droppedFrames();
+        p.stop();
+        assertEquals(W, r.width);
+        assertEquals(W * H, r.argb.length);
+        return r.sequence;
+    }
+
+    @Test
+    public void latestWinsKeepsNewestFrame() throws Exception {
+        long[] dropped = new long[1];
+        assertEquals(4, runBacklog(FrameProcessor.DropPolicy.LATEST_WINS, dropped));
+        assertEquals(2, dropped[0]);
+    }
+
+    @Test
+    public void keepOldestDropsArrivals() throws Exception {
+        long[] dropped = new long[1];
+        assertEquals(2, runBacklog(FrameProcessor.DropPolicy.KEEP_OLDEST, dropped));
+        assertEquals(2, dropped[0]);
+    }
+
+    @Test
+    public void failedFrameIsReleasedAndWorkerCarriesOn() throws Exception {
+        CountingListener listener = new CountingListener();
+        final AtomicInteger released = new AtomicInteger();
+        FrameProcessor.BufferOwner owner = new FrameProcessor.BufferOwner() {
+            public void release(byte[] buffer) {
+                released.incrementAndGet();
+            }
+        };
+        FrameProcessor p = new FrameProcessor(new DetectorOptions(),
+                FrameProcessor.DropPolicy.KEEP_OLDEST, listener);
+        p.start();
+
+        assertTrue(p.submit(new byte[10], W, H, CameraMode.SOBEL, owner));   // too short for W x H
+        assertTrue(listener.failed.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(p.submit(new byte[W * H * 3 / 2], W, H, CameraMode.SOBEL, owner));
+        assertTrue(listener.processed.tryAcquire(5, TimeUnit.SECONDS));
+        p.stop();
+
+        assertEquals(1, p.failedFrames());
+        assertEquals(1, p.processedFrames());
+        assertEquals(2, released.get());
+        assertEquals(2, p.acquireLatest().sequence);
+    }
+}
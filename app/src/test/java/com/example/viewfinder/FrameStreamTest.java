@@ -0,0 +1,83 @@
+package com.example.viewfinder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameStreamTest {
+    private static final int W = 48, H = 32;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void mappedFramesDetectLikeHeapFrames() throws Exception {
+        File capture = tmp.newFile("capture.edgs");
+        File edges = tmp.newFile("edges.edgs");
+        Random rnd = new Random(8);
+        byte[][] frames = new byte[4][W * H * 3 / 2];
+        FrameStream.Writer w = new FrameStream.Writer(capture, FrameStream.NV21, W, H);
+        for (byte[] f : frames) {
+            rnd.nextBytes(f);
+            w.write(f);
+        }
+        w.close();
+
+        FrameStream.Reader r = new FrameStream.Reader(capture);
+        assertEquals(4, r.frames());
+        assertEquals(W * H, r.luma(2).remaining());
+        FrameStream.Writer out = new FrameStream.Writer(edges, FrameStream.Y8, W, H);
+        Workspace ws = new Workspace(W, H);
+        for (int i = 0; i < r.frames(); i++) {
+            int[] expected = EdgeDetector.Detect(CameraMode.CANNY, frames[i], W, H,
+                    new Workspace(W, H), new DetectorOptions()).data;
+            Plane mapped = EdgeDetector.Detect(CameraMode.CANNY, r.luma(i), W, H, ws,
+                    new DetectorOptions());
+            assertArrayEquals(expected, mapped.data);
+            out.write(mapped);
+        }
+        out.close();
+        r.close();
+
+        FrameStream.Reader back = new FrameStream.Reader(edges);
+        assertEquals(FrameStream.Y8, back.format);
+        assertEquals(4, back.frames());
+        Plane last = EdgeDetector.Detect(CameraMode.CANNY, frames[3], W, H, ws, new DetectorOptions());
+        ByteBuffer stored = back.frame(3);
+        for (int i = 0; i < W * H; i++) {
+            assertEquals(Math.min(255, last.data[i]), stored.get(i) & 0xFF);
+        }
+        back.close();
+    }
+
+    @Test
+    public void tornLastRecordIsIgnored() throws Exception {
+        File f = tmp.newFile("torn.edgs");
+        FrameStream.Writer w = new FrameStream.Writer(f, FrameStream.Y8, W, H);
+        w.write(new byte[W * H]);
+        w.close();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(raf.length() + 100);
+        raf.close();
+        FrameStream.Reader r = new FrameStream.Reader(f);
+        assertEquals(1, r.frames());
+        r.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignFileIsRejected() throws Exception {
+        File f = tmp.newFile("junk.bin");
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.write(new byte[64]);
+        raf.close();
+        new FrameStream.Reader(f);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GaussianBlurTest {
+
+    // The double precision kernel the Canny path used before
+    private static final double[][] GAUSSIAN_159 = new double[][]{
+            {2 / 159., 4 / 159., 5 / 159., 4 / 159., 2 / 159.},
+            {4 / 159., 9 / 159., 12 / 159., 9 / 159., 4 / 159.},
+            {5 / 159., 12 / 159., 15 / 159., 12 / 159., 5 / 159.},
+            {4 / 159., 9 / 159., 12 / 159., 9 / 159., 4 / 159.},
+            {2 / 159., 4 / 159., 5 / 159., 4 / 159., 2 / 159.},
+    };
+
+    @Test
+    public void tapsAreNormalisedAndSymmetric() throws Exception {
+        for (double sigma : new double[]{0.5, 1.0, 1.4, 2.0, 3.5}) {
+            GaussianBlur blur = GaussianBlur.forSigma(sigma);
+            int sum = 0;
+            for (int i = 0; i < blur.size; i++) {
+                sum += blur.taps[i];
+                assertEquals(blur.taps[i], blur.taps[blur.size - 1 - i]);
+            }
+            assertEquals(1 << GaussianBlur.SHIFT, sum);
+        }
+    }
+
+    @Test
+    public void flatImageIsUnchanged() throws Exception {
+        Plane src = new Plane(17, 11);
+        java.util.Arrays.fill(src.data, 200);
+        Plane dst = new Plane(17, 11);
+        new GaussianBlur(2.0, 9).apply(src, dst, new Plane(17, 11));
+        for (int v : dst.data) {
+            assertEquals(200, v);
+        }
+    }
+
+    @Test
+    public void closeToDoubleKernel() throws Exception {
+        Random rnd = new Random(3);
+        Plane src = new Plane(64, 48);
+        for (int i = 0; i < src.data.length; i++) {
+            src.data[i] = rnd.nextInt(256);
+        }
+        Plane fixed = new Plane(64, 48);
+        GaussianBlur.DEFAULT.apply(src, fixed, new Plane(64, 48));
+        Plane ref = new Plane(64, 48);
+        Convolution.apply(src, GAUSSIAN_159, ref, true, 0, 48);
+
+        for (int i = 0; i < ref.data.length; i++) {
+            assertTrue("pixel " + i, Math.abs(ref.data[i] - fixed.data[i]) <= 4);
+        }
+    }
+}
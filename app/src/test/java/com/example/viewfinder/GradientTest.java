@@ -0,0 +1,55 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GradientTest {
+
+    private static void checkAgainstKernels(int w, int[][] kx, int[][] ky, int width, int height) {
+        Random rnd = new Random(width * 31 + height);
+        Plane src = new Plane(width, height);
+        for (int i = 0; i < src.data.length; i++) {
+            src.data[i] = rnd.nextInt(256);
+        }
+        Plane tmp = new Plane(width, height);
+        Plane refX = new Plane(width, height);
+        Plane refY = new Plane(width, height);
+        Convolution.apply(src, Kernel.of(kx), refX, tmp, false);
+        Convolution.apply(src, Kernel.of(ky), refY, tmp, false);
+
+        Plane gx = new Plane(width, height);
+        Plane gy = new Plane(width, height);
+        Plane mag = new Plane(width, height);
+        Plane l1 = new Plane(width, height);
+        Gradient.apply(src, w, gx, gy, mag, false);
+        Gradient.apply(src, w, null, null, l1, true);
+
+        assertArrayEquals(refX.data, gx.data);
+        assertArrayEquals(refY.data, gy.data);
+        for (int i = 0; i < mag.data.length; i++) {
+            int x = refX.data[i], y = refY.data[i];
+            assertEquals((int) Math.round(Math.sqrt(x * x + y * y)), mag.data[i]);
+            assertEquals(Math.abs(x) + Math.abs(y), l1.data[i]);
+        }
+    }
+
+    @Test
+    public void sobelMatchesKernels() throws Exception {
+        int[][] kx = EdgeDetector.SobelKernel(SobelOp.X_3x3);
+        int[][] ky = EdgeDetector.SobelKernel(SobelOp.Y_3x3);
+        checkAgainstKernels(Gradient.SOBEL, kx, ky, 33, 21);
+        checkAgainstKernels(Gradient.SOBEL, kx, ky, 2, 2);
+        checkAgainstKernels(Gradient.SOBEL, kx, ky, 1, 5);
+    }
+
+    @Test
+    public void prewittMatchesKernels() throws Exception {
+        int[][] kx = EdgeDetector.PrewittKernel(PrewittOp.X_3x3);
+        int[][] ky = EdgeDetector.PrewittKernel(PrewittOp.Y_3x3);
+        checkAgainstKernels(Gradient.PREWITT, kx, ky, 33, 21);
+        checkAgainstKernels(Gradient.PREWITT, kx, ky, 4, 1);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntegralImageTest {
+
+    @Test
+    public void boxQueriesMatchDirectSums() throws Exception {
+        Random rnd = new Random(5);
+        int[] buffer = new int[40 * 30];
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = rnd.nextInt(2048);
+        }
+        // a view with a stride, as the gray frame can be
+        Plane src = new Plane(33, 25, 40, 43, buffer);
+        IntegralImage table = new IntegralImage(33, 25, true).compute(src);
+        for (int i = 0; i < 200; i++) {
+            int top = rnd.nextInt(25), bottom = top + 1 + rnd.nextInt(25 - top);
+            int left = rnd.nextInt(33), right = left + 1 + rnd.nextInt(33 - left);
+            long sum = 0;
+            double squares = 0;
+            for (int r = top; r < bottom; r++) {
+                for (int c = left; c < right; c++) {
+                    sum += src.get(r, c);
+                    squares += (double) src.get(r, c) * src.get(r, c);
+                }
+            }
+            int n = (bottom - top) * (right - left);
+            double mean = (double) sum / n;
+            assertEquals(sum, table.sum(top, left, bottom, right));
+            assertEquals(mean, table.mean(top, left, bottom, right), 1e-9);
+            assertEquals(squares / n - mean * mean, table.variance(top, left, bottom, right), 1e-6);
+        }
+        assertEquals(0, table.sum(3, 3, 3, 10));
+    }
+
+    @Test
+    public void windowsAreCutAtTheEdges() throws Exception {
+        Plane flat = new Plane(10, 8);
+        java.util.Arrays.fill(flat.data, 7);
+        IntegralImage table = new IntegralImage(10, 8, true).compute(flat);
+        assertEquals(7 * 3 * 3, table.sumAround(0, 0, 2));
+        assertEquals(7.0, table.meanAround(7, 9, 5), 0);
+        assertEquals(0.0, table.varianceAround(4, 4, 1), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void varianceNeedsSquares() throws Exception {
+        new IntegralImage(4, 4, false).compute(new Plane(4, 4)).variance(0, 0, 4, 4);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RegionTest {
+    private static final int W = 64, H = 48;
+
+    private static byte[] randomFrame() {
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        new Random(3).nextBytes(nv21);
+        return nv21;
+    }
+
+    @Test
+    public void fullRegionMatchesWholeFrame() throws Exception {
+        byte[] nv21 = randomFrame();
+        Region full = Region.full(W, H, 1);
+        for (CameraMode mode : new CameraMode[]{CameraMode.SOBEL, CameraMode.CANNY}) {
+            int[] expected = EdgeDetector.Detect(mode, nv21, W, H,
+                    new Workspace(W, H), new DetectorOptions()).data.clone();
+            Plane actual = EdgeDetector.Detect(mode, nv21, W, H, full,
+                    new Workspace(W, H), new DetectorOptions());
+            assertArrayEquals(mode.toString(), expected, actual.data);
+        }
+    }
+
+    @Test
+    public void downscaledRegionAveragesBlocks() throws Exception {
+        byte[] nv21 = randomFrame();
+        Region roi = new Region(8, 4, 34, 20, 4);
+        assertEquals(8, roi.outputWidth());
+        assertEquals(5, roi.outputHeight());
+        assertEquals(8 + 3 * 4 + 2, roi.toFrameX(3));
+        assertEquals(4 + 20, roi.frameBottom());
+
+        Workspace ws = new Workspace(8, 5);
+        EdgeDetector.Detect(CameraMode.SOBEL, nv21, W, H, roi, ws, new DetectorOptions());
+        int sum = 0;
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                sum += nv21[(4 + 2 * 4 + i) * W + 8 + 3 * 4 + j] & 0xFF;
+            }
+        }
+        assertEquals(Math.max(0, sum / 16 - 16), ws.gray().get(2, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void regionOutsideFrameIsRejected() throws Exception {
+        Region roi = new Region(40, 0, 32, 16, 2);
+        EdgeDetector.Detect(CameraMode.SOBEL, randomFrame(), W, H, roi,
+                new Workspace(16, 8), new DetectorOptions());
+    }
+}
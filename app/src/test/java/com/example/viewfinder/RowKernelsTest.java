@@ -0,0 +1,92 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Compares whatever backend is active with the scalar loops; only the scalar
+// one exists unless the vector source set is on the class path
+public class RowKernelsTest {
+    private static final int N = 203;   // not a multiple of any lane count
+
+    private static int[] pixels(Random rnd, int n, int max) {
+        int[] px = new int[n];
+        for (int i = 0; i < n; i++) {
+            px[i] = rnd.nextInt(max + 1);
+        }
+        return px;
+    }
+
+    @Test
+    public void convolutionMatchesScalar() throws Exception {
+        Random rnd = new Random(1);
+        int[] in = pixels(rnd, 3 * N + 16, 255);
+        for (int[] taps : new int[][]{{1, 2, 1}, {-1, 0, 1}, GaussianBlur.DEFAULT.taps,
+                GaussianBlur.forSigma(2.5).taps}) {
+            int count = N - taps.length;
+            int[] want = new int[N];
+            int[] got = new int[N];
+            RowKernels.SCALAR.correlate(in, 3, taps, want, 1, count);
+            RowKernels.ACTIVE.correlate(in, 3, taps, got, 1, count);
+            assertArrayEquals(want, got);
+
+            int[] rows = new int[taps.length];
+            for (int t = 0; t < taps.length; t++) {
+                rows[t] = rnd.nextInt(2 * N);
+            }
+            for (int shift : new int[]{0, 8, 16}) {
+                RowKernels.SCALAR.combineRows(in, rows, taps, want, 2, N - 2, shift);
+                RowKernels.ACTIVE.combineRows(in, rows, taps, got, 2, N - 2, shift);
+                assertArrayEquals("shift " + shift, want, got);
+            }
+        }
+    }
+
+    @Test
+    public void gradientMatchesScalar() throws Exception {
+        Random rnd = new Random(2);
+        for (int max : new int[]{1, 255, 4095, 16383}) {   // the last one goes past 2^15
+            int[] in = pixels(rnd, 3 * N, max);
+            for (int w : new int[]{Gradient.SOBEL, Gradient.PREWITT}) {
+                for (boolean l1 : new boolean[]{false, true}) {
+                    int[][] want = new int[3][N];
+                    int[][] got = new int[3][N];
+                    byte[] wantDir = new byte[N];
+                    byte[] gotDir = new byte[N];
+                    RowKernels.SCALAR.gradient(in, 1, N + 1, 2 * N + 1, w, l1,
+                            want[0], want[1], want[2], wantDir, 0, N - 2);
+                    RowKernels.ACTIVE.gradient(in, 1, N + 1, 2 * N + 1, w, l1,
+                            got[0], got[1], got[2], gotDir, 0, N - 2);
+                    for (int i = 0; i < 3; i++) {
+                        assertArrayEquals(max + " " + w + " " + l1, want[i], got[i]);
+                    }
+                    assertArrayEquals(wantDir, gotDir);
+                }
+            }
+        }
+    }
+
+    // Past 2^15 the int lanes would overflow; gx = 34662, gy = 21880 is a diagonal
+    @Test
+    public void largeGradientMatchesScalar() throws Exception {
+        for (int k = 1; k < 20; k++) {
+            int[] in = new int[3 * N];
+            in[k] = 10940;          // b: gy = 2 * b
+            in[N + k - 1] = 17331;  // d: gx = 2 * d
+            int[] gx = new int[N];
+            int[] gy = new int[N];
+            byte[] wantDir = new byte[N];
+            byte[] gotDir = new byte[N];
+            RowKernels.SCALAR.gradient(in, 1, N + 1, 2 * N + 1, Gradient.SOBEL, false,
+                    gx, gy, null, wantDir, 0, N - 2);
+            RowKernels.ACTIVE.gradient(in, 1, N + 1, 2 * N + 1, Gradient.SOBEL, false,
+                    null, null, null, gotDir, 0, N - 2);
+            assertEquals(34662, gx[k - 1]);
+            assertEquals(21880, gy[k - 1]);
+            assertEquals(Gradient.DIAGONAL_DOWN, wantDir[k - 1]);
+            assertArrayEquals("pixel " + (k - 1), wantDir, gotDir);
+        }
+    }
+}
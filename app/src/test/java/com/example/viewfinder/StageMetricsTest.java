@@ -0,0 +1,70 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StageMetricsTest {
+
+    @Test
+    public void percentilesWithinBucketError() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(1000000, h.max());
+        assertEquals(500000, h.percentile(0.50), 500000 / 8);
+        assertEquals(990000, h.percentile(0.99), 990000 / 8);
+        h.reset();
+        assertEquals(0, h.percentile(0.5));
+    }
+
+    @Test
+    public void bucketsCoverTheRange() throws Exception {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 123456789L, 1L << 40, Long.MAX_VALUE};
+        for (long v : values) {
+            int b = LatencyHistogram.bucket(v);
+            assertTrue(v + " below its bucket", LatencyHistogram.lowerBound(b) <= v);
+        }
+        assertTrue(LatencyHistogram.bucket(1000) < LatencyHistogram.bucket(2000));
+    }
+
+    @Test
+    public void cannyRecordsEveryStage() throws Exception {
+        StageMetrics metrics = new StageMetrics(Long.MAX_VALUE);
+        DetectorOptions opts = new DetectorOptions().metrics(metrics);
+        byte[] nv21 = new byte[64 * 48 * 3 / 2];
+        new Random(4).nextBytes(nv21);
+        Workspace ws = new Workspace(64, 48);
+        int[] argb = new int[64 * 48];
+        for (int i = 0; i < 5; i++) {
+            EdgeDetector.Detect(CameraMode.CANNY, nv21, 64, 48, ws, opts, argb);
+            metrics.frameDone(1000000, 0);
+        }
+        metrics.frameDropped();
+
+        StageMetrics.Snapshot s = metrics.snapshot();
+        for (int stage = 0; stage < StageMetrics.STAGES; stage++) {
+            assertEquals(StageMetrics.Snapshot.name(stage), 5, s.count[stage]);
+        }
+        assertEquals(5, s.frames);
+        assertEquals(1, s.dropped);
+        assertTrue(s.p99[StageMetrics.FRAME] >= s.p50[StageMetrics.FRAME]);
+    }
+
+    @Test
+    public void sobelSkipsCannyStages() throws Exception {
+        StageMetrics metrics = new StageMetrics();
+        Workspace ws = new Workspace(32, 32);
+        EdgeDetector.Detect(CameraMode.SOBEL, new byte[32 * 32 * 3 / 2], 32, 32, ws,
+                new DetectorOptions().metrics(metrics));
+        StageMetrics.Snapshot s = metrics.snapshot();
+        assertEquals(1, s.count[StageMetrics.DECODE]);
+        assertEquals(1, s.count[StageMetrics.GRADIENT]);
+        assertEquals(0, s.count[StageMetrics.BLUR]);
+        assertEquals(0, s.count[StageMetrics.NMS]);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamingCannyTest {
+    private static final int W = 83, H = 61;
+
+    private static byte[] scene(long seed) {
+        Random rnd = new Random(seed);
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        for (int r = 0; r < H; r++) {
+            for (int c = 0; c < W; c++) {
+                int y = 16 + ((c * 3 + r * 2) / 17 % 2) * 110 + ((r - 30) * (r - 30) + (c - 40) * (c - 40) < 300 ? 80 : 0);
+                nv21[r * W + c] = (byte) Math.min(255, y + rnd.nextInt(25));
+            }
+        }
+        return nv21;
+    }
+
+    private static void assertSameEdges(String what, Plane want, byte[] got) {
+        int edges = 0;
+        for (int i = 0; i < W * H; i++) {
+            assertEquals(what + " pixel " + i, want.data[i] > 0, got[i] == StreamingCanny.EDGE);
+            if (got[i] != 0) edges++;
+        }
+        assertTrue(what + " found no edges", edges > 0);
+    }
+
+    @Test
+    public void exactModeMatchesCannyEdges() throws Exception {
+        DetectorOptions[] options = {
+                new DetectorOptions(),
+                new DetectorOptions().l1Magnitude(true),
+                new DetectorOptions().thresholds(CannyThresholds.percentile(0.85, 0.4)),
+                new DetectorOptions().thresholds(CannyThresholds.otsu(0.5)).blur(GaussianBlur.forSigma(2)),
+                new DetectorOptions().blur(new BoxBlur(3)),
+        };
+        StreamingCanny streaming = new StreamingCanny(W, H).setExact(true);
+        byte[] edges = new byte[W * H];
+        for (int i = 0; i < options.length; i++) {
+            for (long seed = 1; seed <= 2; seed++) {
+                byte[] frame = scene(seed);
+                Plane want = EdgeDetector.Detect(CameraMode.CANNY, frame, W, H, new Workspace(W, H), options[i]);
+                streaming.detect(frame, edges, options[i]);
+                assertSameEdges("options " + i + " seed " + seed, want, edges);
+                streaming.detect(ByteBuffer.wrap(frame), edges, options[i]);
+                assertSameEdges("buffer, options " + i + " seed " + seed, want, edges);
+            }
+        }
+    }
+
+    @Test
+    public void smallStackStillFollowsEveryChain() throws Exception {
+        byte[] frame = scene(3);
+        DetectorOptions opts = new DetectorOptions();
+        Plane want = EdgeDetector.Detect(CameraMode.CANNY, frame, W, H, new Workspace(W, H), opts);
+        byte[] edges = new byte[W * H];
+        new StreamingCanny(W, H, 3).detect(frame, edges, opts);
+        assertSameEdges("stack of 3", want, edges);
+    }
+
+    @Test
+    public void laterFramesUseThePreviousThresholds() throws Exception {
+        DetectorOptions opts = new DetectorOptions();
+        StreamingCanny streaming = new StreamingCanny(W, H);
+        byte[] first = new byte[W * H];
+        byte[] second = new byte[W * H];
+        streaming.detect(scene(4), first, opts);
+        // same statistics, so a single pass gives the same edges
+        streaming.detect(scene(4), second, opts);
+        assertArrayEquals(first, second);
+
+        // a much darker frame keeps the bright frame's thresholds and loses edges
+        byte[] dark = scene(4);
+        for (int i = 0; i < W * H; i++) {
+            dark[i] = (byte) (16 + ((dark[i] & 0xFF) - 16) / 4);
+        }
+        streaming.detect(dark, second, opts);
+        byte[] exact = new byte[W * H];
+        new StreamingCanny(W, H).detect(dark, exact, opts);
+        assertTrue(count(second) < count(exact));
+    }
+
+    private static int count(byte[] edges) {
+        int n = 0;
+        for (byte b : edges) {
+            if (b != 0) n++;
+        }
+        return n;
+    }
+}
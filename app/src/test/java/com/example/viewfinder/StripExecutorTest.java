@@ -0,0 +1,53 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class StripExecutorTest {
+
+    private static Plane randomFrame(int width, int height) {
+        Random rnd = new Random(11);
+        Plane p = new Plane(width, height);
+        for (int i = 0; i < p.data.length; i++) {
+            p.data[i] = 0xFF000000 | rnd.nextInt(256) * 0x010101;
+        }
+        return p;
+    }
+
+    @Test
+    public void everyRowVisitedOnce() throws Exception {
+        StripExecutor exec = new StripExecutor(4);
+        final AtomicIntegerArray hits = new AtomicIntegerArray(481);
+        for (int round = 0; round < 50; round++) {
+            exec.run(new StripExecutor.RowTask() {
+                public void run(int rowStart, int rowEnd) {
+                    for (int r = rowStart; r < rowEnd; r++) hits.incrementAndGet(r);
+                }
+            }, 481);
+        }
+        for (int r = 0; r < 481; r++) {
+            assertEquals(50, hits.get(r));
+        }
+        exec.shutdown();
+    }
+
+    @Test
+    public void parallelCannyMatchesSerial() throws Exception {
+        Plane frame = randomFrame(160, 121);
+        StripExecutor exec = new StripExecutor(3);
+        DetectorOptions parallel = new DetectorOptions().executor(exec);
+
+        for (CameraMode mode : new CameraMode[]{CameraMode.SOBEL, CameraMode.PREWITT, CameraMode.CANNY}) {
+            int[] serial = EdgeDetector.Detect(mode, frame, new Workspace(160, 121)).data.clone();
+            Workspace ws = new Workspace(160, 121);
+            for (int round = 0; round < 3; round++) {
+                assertArrayEquals(mode.toString(), serial, EdgeDetector.Detect(mode, frame, ws, parallel).data);
+            }
+        }
+        exec.shutdown();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TemporalDetectorTest {
+    private static final int W = 96, H = 80;
+
+    private static byte[] scene(Random rnd) {
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        for (int r = 0; r < H; r++) {
+            for (int c = 0; c < W; c++) {
+                int y = 16 + ((c / 12 + r / 10) % 2) * 120 + rnd.nextInt(40);
+                nv21[r * W + c] = (byte) y;
+            }
+        }
+        return nv21;
+    }
+
+    // Moves a bright square a few pixels each frame
+    private static void paintSquare(byte[] nv21, byte[] background, int left, int top) {
+        System.arraycopy(background, 0, nv21, 0, W * H);
+        for (int r = top; r < top + 9; r++) {
+            for (int c = left; c < left + 9; c++) {
+                nv21[r * W + c] = (byte) 235;
+            }
+        }
+    }
+
+    private static void assertMatchesFullRun(CameraMode mode, DetectorOptions opts) {
+        byte[] background = scene(new Random(3));
+        byte[] frame = background.clone();
+        TemporalDetector temporal = new TemporalDetector(16, 0, 0.5);
+        Workspace ws = new Workspace(W, H);
+        for (int i = 0; i < 6; i++) {
+            paintSquare(frame, background, 20 + 5 * i, 30 + 3 * i);
+            Plane got = temporal.detect(mode, frame, W, H, null, ws, opts);
+            Plane want = EdgeDetector.Detect(mode, frame, W, H, new Workspace(W, H), opts);
+            assertArrayEquals(mode + " frame " + i, want.data, got.data);
+            if (i > 0) {
+                assertTrue("frame " + i + " redid " + temporal.dirtyTiles() + " tiles",
+                        temporal.dirtyTiles() < temporal.tiles() / 2);
+            }
+        }
+    }
+
+    @Test
+    public void exactWithZeroThreshold() throws Exception {
+        assertMatchesFullRun(CameraMode.SOBEL, new DetectorOptions());
+        assertMatchesFullRun(CameraMode.PREWITT, new DetectorOptions().l1Magnitude(true));
+        assertMatchesFullRun(CameraMode.CANNY, new DetectorOptions());
+        assertMatchesFullRun(CameraMode.CANNY,
+                new DetectorOptions().thresholds(CannyThresholds.percentile(0.8, 0.4)));
+        assertMatchesFullRun(CameraMode.CANNY, new DetectorOptions().blur(null));
+    }
+
+    @Test
+    public void stillFrameReusesEverything() throws Exception {
+        byte[] frame = scene(new Random(8));
+        TemporalDetector temporal = new TemporalDetector();
+        Workspace ws = new Workspace(W, H);
+        DetectorOptions opts = new DetectorOptions();
+        int[] first = temporal.detect(CameraMode.CANNY, frame, W, H, null, ws, opts).data.clone();
+        assertEquals(temporal.tiles(), temporal.dirtyTiles());
+
+        // a little noise stays under the threshold
+        Random rnd = new Random(9);
+        for (int i = 0; i < W * H; i += 7) {
+            frame[i] += rnd.nextInt(3) - 1;
+        }
+        Plane again = temporal.detect(CameraMode.CANNY, frame, W, H, null, ws, opts);
+        assertEquals(0, temporal.dirtyTiles());
+        assertEquals(0, temporal.recomputedPixels());
+        assertArrayEquals(first, again.data);
+
+        // a new mode starts over
+        temporal.detect(CameraMode.SOBEL, frame, W, H, null, ws, opts);
+        assertEquals(temporal.tiles(), temporal.dirtyTiles());
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WorkspacePoolTest {
+
+    @Test
+    public void releasedWorkspaceIsHandedOutAgainForItsSize() throws Exception {
+        WorkspacePool pool = new WorkspacePool(2);
+        Workspace a = pool.acquire(32, 24);
+        Workspace b = pool.acquire(32, 24);
+        assertNotSame(a, b);
+        pool.release(a);
+        assertNotSame(a, pool.acquire(16, 12));   // wrong size: a fresh one
+        assertSame(a, pool.acquire(32, 24));
+        assertNotSame(a, pool.acquire(32, 24));   // taken until released again
+    }
+
+    @Test
+    public void oldestIdleWorkspaceIsDropped() throws Exception {
+        WorkspacePool pool = new WorkspacePool(1);
+        Workspace a = pool.acquire(32, 24);
+        Workspace b = pool.acquire(32, 24);
+        pool.release(a);
+        pool.release(b);
+        assertSame(b, pool.acquire(32, 24));
+        assertNotSame(a, pool.acquire(32, 24));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void secondReleaseIsRejected() throws Exception {
+        WorkspacePool pool = new WorkspacePool();
+        Workspace a = pool.acquire(32, 24);
+        pool.release(a);
+        pool.release(a);
+    }
+}
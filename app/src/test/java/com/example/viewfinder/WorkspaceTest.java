@@ -0,0 +1,43 @@
+package com.example.viewfinder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceTest {
+    private static final int W = 64, H = 48;
+
+    @Test
+    public void steadyStateAllocatesNothing() throws Exception {
+        Random rnd = new Random(3);
+        byte[] nv21 = new byte[W * H * 3 / 2];
+        Workspace ws = new Workspace(W, H);
+        DetectorOptions[] options = {
+                new DetectorOptions(),
+                new DetectorOptions().thresholds(CannyThresholds.otsu(0.5)),
+                new DetectorOptions().thresholds(CannyThresholds.local(8, 0.5)),
+                new DetectorOptions().blur(null),
+        };
+        int[] argb = ws.argb();
+        // warm up every buffer any mode and option can ask for
+        for (CameraMode mode : new CameraMode[]{CameraMode.SOBEL, CameraMode.PREWITT, CameraMode.CANNY}) {
+            for (DetectorOptions opts : options) {
+                EdgeDetector.Detect(mode, nv21, W, H, ws, opts, argb);
+            }
+        }
+        long warm = ws.allocatedBytes();
+        assertTrue(warm > 0);
+
+        for (int frame = 0; frame < 5; frame++) {
+            rnd.nextBytes(nv21);
+            for (CameraMode mode : new CameraMode[]{CameraMode.SOBEL, CameraMode.PREWITT, CameraMode.CANNY}) {
+                for (DetectorOptions opts : options) {
+                    EdgeDetector.Detect(mode, nv21, W, H, ws, opts, argb);
+                    assertEquals(mode + " frame " + frame, warm, ws.allocatedBytes());
+                }
+            }
+        }
+    }
+}
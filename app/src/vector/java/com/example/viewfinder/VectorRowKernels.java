@@ -0,0 +1,158 @@
+package com.example.viewfinder;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * RowKernels on the Vector API: every loop does INTS.length() pixels per
+ * step (8 with AVX2, 16 with AVX-512) and leaves the last partial step to
+ * the scalar code, so results are bit-identical to it.
+ *
+ * This lives in its own source set because Android can't compile
+ * jdk.incubator.vector. Build it for desktop and server JVMs (BatchDetector)
+ * with javac/java --add-modules jdk.incubator.vector; RowKernels.load()
+ * finds it on the class path at run time.
+ */
+final class VectorRowKernels extends RowKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    // Gradient.TAN_22_5; with |gx|, |gy| < 2^15 nothing below overflows an int lane
+    private static final int TAN_22_5 = 27146;
+    private static final int OUTSIDE_SAFE_RANGE = -1 << 15;
+
+    private static final float ROUNDING = 1 << 23;
+    private static final int ROUNDING_BITS = Float.floatToRawIntBits(ROUNDING);
+
+    // direction codes of one step, narrowed to bytes from here
+    private static final ThreadLocal<int[]> CODES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[INTS.length()];
+        }
+    };
+
+    // Fewer than 4 int lanes means no SIMD registers worth using
+    static boolean isSupported() {
+        return INTS.length() >= 4;
+    }
+
+    @Override
+    String name() {
+        return "vector " + INTS.vectorBitSize() + " bit";
+    }
+
+    @Override
+    void correlate(int[] in, int inPos, int[] taps, int[] out, int outPos, int count) {
+        int step = INTS.length();
+        int k = 0;
+        for (; k<=count-step; k+=step) {
+            IntVector sum = IntVector.fromArray(INTS, in, inPos + k).mul(taps[0]);
+            for (int t=1; t<taps.length; t++) {
+                sum = sum.add(IntVector.fromArray(INTS, in, inPos + k + t).mul(taps[t]));
+            }
+            sum.intoArray(out, outPos + k);
+        }
+        super.correlate(in, inPos + k, taps, out, outPos + k, count - k);
+    }
+
+    @Override
+    void combineRows(int[] in, int[] rows, int[] taps, int[] out, int outPos, int count, int shift) {
+        int step = INTS.length();
+        int round = shift > 0 ? 1 << (shift - 1) : 0;
+        int k = 0;
+        for (; k<=count-step; k+=step) {
+            IntVector sum = IntVector.fromArray(INTS, in, rows[0] + k).mul(taps[0]);
+            for (int t=1; t<taps.length; t++) {
+                if (taps[t] != 0) {
+                    sum = sum.add(IntVector.fromArray(INTS, in, rows[t] + k).mul(taps[t]));
+                }
+            }
+            if (shift > 0) {
+                sum = sum.add(round).lanewise(VectorOperators.ASHR, shift);
+            }
+            sum.intoArray(out, outPos + k);
+        }
+        for (; k<count; k++) {
+            int sum = 0;
+            for (int t=0; t<taps.length; t++) {
+                sum += taps[t] * in[rows[t] + k];
+            }
+            out[outPos + k] = shift > 0 ? (sum + round) >> shift : sum;
+        }
+    }
+
+    @Override
+    void gradient(int[] in, int up, int mid, int down, int w, boolean l1,
+                  int[] gx, int[] gy, int[] mag, byte[] dir, int outPos, int count) {
+        int step = INTS.length();
+        int[] codes = dir != null ? CODES.get() : null;
+        int k = 0;
+        for (; k<=count-step; k+=step) {
+            IntVector a = IntVector.fromArray(INTS, in, up + k - 1);
+            IntVector b = IntVector.fromArray(INTS, in, up + k);
+            IntVector cc = IntVector.fromArray(INTS, in, up + k + 1);
+            IntVector d = IntVector.fromArray(INTS, in, mid + k - 1);
+            IntVector f = IntVector.fromArray(INTS, in, mid + k + 1);
+            IntVector g = IntVector.fromArray(INTS, in, down + k - 1);
+            IntVector h = IntVector.fromArray(INTS, in, down + k);
+            IntVector i = IntVector.fromArray(INTS, in, down + k + 1);
+
+            IntVector x = a.add(d.mul(w)).add(g).sub(cc.add(f.mul(w)).add(i));
+            IntVector y = a.add(b.mul(w)).add(cc).sub(g.add(h.mul(w)).add(i));
+            IntVector ax = x.abs();
+            IntVector ay = y.abs();
+            int o = outPos + k;
+            if (ax.or(ay).and(OUTSIDE_SAFE_RANGE).compare(VectorOperators.NE, 0).anyTrue()) {
+                // too steep for int lanes (16-bit and wider input); the scalar code does this step
+                super.gradient(in, up + k, mid + k, down + k, w, l1, gx, gy, mag, dir, o, step);
+                continue;
+            }
+            if (gx != null) x.intoArray(gx, o);
+            if (gy != null) y.intoArray(gy, o);
+            if (mag != null) magnitude(ax, ay, l1).intoArray(mag, o);
+            if (dir != null) {
+                directionCodes(x, y, ax, ay).intoArray(codes, 0);
+                for (int j=0; j<step; j++) {
+                    dir[o + j] = (byte) codes[j];
+                }
+            }
+        }
+        super.gradient(in, up + k, mid + k, down + k, w, l1, gx, gy, mag, dir, outPos + k, count - k);
+    }
+
+    // Math.round(Math.sqrt(x*x + y*y)), or |x| + |y|
+    private static IntVector magnitude(IntVector ax, IntVector ay, boolean l1) {
+        if (l1) {
+            return ax.add(ay);
+        }
+        IntVector s = ax.mul(ax).add(ay.mul(ay));
+        FloatVector root = ((FloatVector) s.convert(VectorOperators.I2F, 0)).sqrt();
+        // nearest integer without a float to int conversion, which isn't intrinsified:
+        // below 2^23, adding 2^23 leaves the rounded value in the low mantissa bits
+        IntVector k = root.add(ROUNDING).reinterpretAsInts().sub(ROUNDING_BITS);
+        // float can be one off once s passes 2^24. s is an integer, so sqrt(s)
+        // rounds to k exactly when k^2 - k < s <= k^2 + k
+        IntVector kk = k.mul(k);
+        VectorMask<Integer> low = s.compare(VectorOperators.GT, kk.add(k));
+        VectorMask<Integer> high = s.compare(VectorOperators.LE, kk.sub(k))
+                .and(k.compare(VectorOperators.GT, 0));
+        return k.add(1, low).sub(1, high);
+    }
+
+    // Gradient.directionCode, lane by lane
+    private static IntVector directionCodes(IntVector x, IntVector y, IntVector ax, IntVector ay) {
+        VectorMask<Integer> horizontal = ay.lanewise(VectorOperators.LSHL, 16)
+                .compare(VectorOperators.LE, ax.mul(TAN_22_5));
+        VectorMask<Integer> vertical = ax.lanewise(VectorOperators.LSHL, 16)
+                .compare(VectorOperators.LE, ay.mul(TAN_22_5));
+        VectorMask<Integer> sameSign = x.lanewise(VectorOperators.XOR, y)
+                .compare(VectorOperators.GE, 0);
+        return IntVector.broadcast(INTS, Gradient.DIAGONAL_UP)
+                .blend(Gradient.DIAGONAL_DOWN, sameSign)
+                .blend(Gradient.VERTICAL, vertical)
+                .blend(Gradient.HORIZONTAL, horizontal);
+    }
+}